@@ -0,0 +1,455 @@
+package org.varun.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates a tree of synthetic source files for benchmarks and scaling tests.
+ * The same seed and settings always produce the same tree, byte for byte, so
+ * results can be compared between machines without sharing real sources.
+ * <p>
+ * Directory depth and fan-out, the size distribution of the files, the mix of
+ * comments, imports, braces and empty lines, and the share of binary files,
+ * files with a byte order mark and files with very long lines can all be
+ * set. File sizes follow a log-normal distribution around the median, which
+ * is close to what real trees look like: many small files and a few big ones.
+ *
+ * @author varun
+ */
+public class CorpusGenerator
+{
+	private static final String[] IDENTIFIERS = { "value", "count", "index", "result", "buffer", "name", "total", "offset" };
+	private static final String[] IMPORTS = { "java.util.List", "java.util.Map", "java.io.File", "java.io.IOException", "java.nio.ByteBuffer" };
+	private static final String[] BINARY_EXTENSIONS = { "png", "class", "jar", "gif" };
+
+	private final long seed;
+
+	private int depth = 3;
+	private int fanOut = 4;
+	private int filesPerDirectory = 10;
+
+	private int medianLines = 150;
+	private double sizeSpread = 1.0;
+	private int maxLines = 20000;
+
+	private double commentRatio = 0.2;
+	private double braceRatio = 0.15;
+	private double emptyLineRatio = 0.1;
+	private int maxImports = 10;
+
+	private double binaryRatio = 0.05;
+	private double bomRatio = 0.02;
+	private double longLineRatio = 0.01;
+	private int longLineLength = 1024 * 1024;
+
+	private Random random;
+	private int generatedFiles;
+	private long generatedBytes;
+
+	/**
+	 * @param seed
+	 *            Determines the generated tree.
+	 */
+	public CorpusGenerator( long seed )
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes the tree below <tt>root</tt>, which is created if needed.
+	 * Existing files with the same names are overwritten.
+	 *
+	 * @param root
+	 * @return The number of generated files.
+	 * @throws IOException
+	 */
+	public int generate( File root ) throws IOException
+	{
+		random = new Random( seed );
+		generatedFiles = 0;
+		generatedBytes = 0;
+		generateDirectory( root, 0 );
+		return generatedFiles;
+	}
+
+	/**
+	 * @return The total size of the files written by the last
+	 *         {@link #generate(File)}.
+	 */
+	public long getGeneratedBytes()
+	{
+		return generatedBytes;
+	}
+
+	private void generateDirectory( File directory, int level ) throws IOException
+	{
+		if ( !directory.isDirectory() && !directory.mkdirs() )
+		{
+			throw new IOException( "Could not create directory " + directory );
+		}
+
+		for ( int i = 0; i < filesPerDirectory; i++ )
+		{
+			generateFile( directory, i );
+		}
+		if ( level < depth )
+		{
+			for ( int i = 0; i < fanOut; i++ )
+			{
+				generateDirectory( new File( directory, "pkg" + i ), level + 1 );
+			}
+		}
+	}
+
+	private void generateFile( File directory, int index ) throws IOException
+	{
+		// Draw every choice in the same order, whatever the kind of file
+		double kind = random.nextDouble();
+		int lines = ( int ) Math.round( medianLines * Math.exp( sizeSpread * random.nextGaussian() ) );
+		lines = Math.max( 1, Math.min( maxLines, lines ) );
+		Random contents = new Random( random.nextLong() );
+
+		String name = "Source" + index;
+		byte[] bytes;
+		if ( kind < binaryRatio )
+		{
+			name += "." + BINARY_EXTENSIONS[contents.nextInt( BINARY_EXTENSIONS.length )];
+			bytes = new byte[lines * 32];
+			contents.nextBytes( bytes );
+		}
+		else
+		{
+			name += ".java";
+			boolean longLine = kind < binaryRatio + longLineRatio;
+			String source = source( contents, name, lines, longLine );
+			if ( kind >= binaryRatio + longLineRatio && kind < binaryRatio + longLineRatio + bomRatio )
+			{
+				bytes = withByteOrderMark( source, contents.nextBoolean() );
+			}
+			else
+			{
+				bytes = source.getBytes( StandardCharsets.UTF_8 );
+			}
+		}
+
+		OutputStream out = new BufferedOutputStream( new FileOutputStream( new File( directory, name ) ) );
+		try
+		{
+			out.write( bytes );
+		}
+		finally
+		{
+			out.close();
+		}
+		generatedFiles++;
+		generatedBytes += bytes.length;
+	}
+
+	private String source( Random contents, String name, int lines, boolean longLine )
+	{
+		StringBuilder source = new StringBuilder( lines * 40 );
+		source.append( "package org.example;\n\n" );
+		for ( int i = contents.nextInt( maxImports + 1 ); i > 0; i-- )
+		{
+			source.append( "import " ).append( IMPORTS[contents.nextInt( IMPORTS.length )] ).append( ";\n" );
+		}
+		source.append( "\npublic class " ).append( name.substring( 0, name.indexOf( '.' ) ) ).append( "\n{\n" );
+
+		int longLineAt = longLine ? contents.nextInt( lines ) : -1;
+		for ( int i = 0; i < lines; i++ )
+		{
+			if ( i == longLineAt )
+			{
+				appendLongLine( contents, source );
+				continue;
+			}
+
+			double line = contents.nextDouble();
+			String identifier = IDENTIFIERS[contents.nextInt( IDENTIFIERS.length )];
+			if ( line < commentRatio )
+			{
+				switch ( contents.nextInt( 3 ) )
+				{
+				case 0:
+					source.append( "\t// Updates the " ).append( identifier ).append( "\n" );
+					break;
+				case 1:
+					source.append( "\t/*\n\t * Updates the " ).append( identifier ).append( "\n\t */\n" );
+					break;
+				default:
+					source.append( "\t" ).append( identifier ).append( "++; // trailing comment\n" );
+				}
+			}
+			else if ( line < commentRatio + braceRatio )
+			{
+				source.append( contents.nextBoolean() ? "\t{\n" : "\t}\n" );
+			}
+			else if ( line < commentRatio + braceRatio + emptyLineRatio )
+			{
+				source.append( "\n" );
+			}
+			else if ( contents.nextInt( 10 ) == 0 )
+			{
+				// A statement that continues on the next line
+				source.append( "\t" ).append( identifier ).append( " = compute( " ).append( contents.nextInt( 1000 ) ).append( ",\n\t\t" ).append( identifier ).append( " );\n" );
+			}
+			else
+			{
+				source.append( "\t" ).append( identifier ).append( " += " ).append( contents.nextInt( 1000 ) ).append( ";\n" );
+			}
+		}
+		source.append( "}\n" );
+		return source.toString();
+	}
+
+	private void appendLongLine( Random contents, StringBuilder source )
+	{
+		source.append( "\tString data = \"" );
+		for ( int i = 0; i < longLineLength; i++ )
+		{
+			source.append( ( char ) ( 'a' + contents.nextInt( 26 ) ) );
+		}
+		source.append( "\";\n" );
+	}
+
+	private static byte[] withByteOrderMark( String source, boolean utf16 )
+	{
+		if ( utf16 )
+		{
+			byte[] text = source.getBytes( StandardCharsets.UTF_16LE );
+			byte[] bytes = new byte[text.length + 2];
+			bytes[0] = ( byte ) 0xff;
+			bytes[1] = ( byte ) 0xfe;
+			System.arraycopy( text, 0, bytes, 2, text.length );
+			return bytes;
+		}
+		byte[] text = source.getBytes( StandardCharsets.UTF_8 );
+		byte[] bytes = new byte[text.length + 3];
+		bytes[0] = ( byte ) 0xef;
+		bytes[1] = ( byte ) 0xbb;
+		bytes[2] = ( byte ) 0xbf;
+		System.arraycopy( text, 0, bytes, 3, text.length );
+		return bytes;
+	}
+
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * @param depth
+	 *            The number of directory levels below the root.
+	 */
+	public void setDepth( int depth )
+	{
+		this.depth = depth;
+	}
+
+	public int getFanOut()
+	{
+		return fanOut;
+	}
+
+	/**
+	 * @param fanOut
+	 *            The number of sub-directories of every directory above the
+	 *            lowest level.
+	 */
+	public void setFanOut( int fanOut )
+	{
+		this.fanOut = fanOut;
+	}
+
+	public int getFilesPerDirectory()
+	{
+		return filesPerDirectory;
+	}
+
+	public void setFilesPerDirectory( int filesPerDirectory )
+	{
+		this.filesPerDirectory = filesPerDirectory;
+	}
+
+	public int getMedianLines()
+	{
+		return medianLines;
+	}
+
+	/**
+	 * @param medianLines
+	 *            The median number of lines in the body of a file.
+	 */
+	public void setMedianLines( int medianLines )
+	{
+		this.medianLines = medianLines;
+	}
+
+	public double getSizeSpread()
+	{
+		return sizeSpread;
+	}
+
+	/**
+	 * @param sizeSpread
+	 *            The standard deviation of the logarithm of the file sizes;
+	 *            <code>0</code> makes all files the same size.
+	 */
+	public void setSizeSpread( double sizeSpread )
+	{
+		this.sizeSpread = sizeSpread;
+	}
+
+	public int getMaxLines()
+	{
+		return maxLines;
+	}
+
+	public void setMaxLines( int maxLines )
+	{
+		this.maxLines = maxLines;
+	}
+
+	public double getCommentRatio()
+	{
+		return commentRatio;
+	}
+
+	/**
+	 * @param commentRatio
+	 *            The share of body lines that are, or end with, a comment.
+	 */
+	public void setCommentRatio( double commentRatio )
+	{
+		this.commentRatio = commentRatio;
+	}
+
+	public double getBraceRatio()
+	{
+		return braceRatio;
+	}
+
+	/**
+	 * @param braceRatio
+	 *            The share of body lines that hold only a brace.
+	 */
+	public void setBraceRatio( double braceRatio )
+	{
+		this.braceRatio = braceRatio;
+	}
+
+	public double getEmptyLineRatio()
+	{
+		return emptyLineRatio;
+	}
+
+	public void setEmptyLineRatio( double emptyLineRatio )
+	{
+		this.emptyLineRatio = emptyLineRatio;
+	}
+
+	public int getMaxImports()
+	{
+		return maxImports;
+	}
+
+	/**
+	 * @param maxImports
+	 *            Every file gets between <code>0</code> and this many import
+	 *            statements.
+	 */
+	public void setMaxImports( int maxImports )
+	{
+		this.maxImports = maxImports;
+	}
+
+	public double getBinaryRatio()
+	{
+		return binaryRatio;
+	}
+
+	/**
+	 * @param binaryRatio
+	 *            The share of files with random binary contents.
+	 */
+	public void setBinaryRatio( double binaryRatio )
+	{
+		this.binaryRatio = binaryRatio;
+	}
+
+	public double getBomRatio()
+	{
+		return bomRatio;
+	}
+
+	/**
+	 * @param bomRatio
+	 *            The share of files that start with a UTF-8 or UTF-16LE byte
+	 *            order mark.
+	 */
+	public void setBomRatio( double bomRatio )
+	{
+		this.bomRatio = bomRatio;
+	}
+
+	public double getLongLineRatio()
+	{
+		return longLineRatio;
+	}
+
+	/**
+	 * @param longLineRatio
+	 *            The share of files that contain one line of
+	 *            {@link #getLongLineLength()} characters.
+	 */
+	public void setLongLineRatio( double longLineRatio )
+	{
+		this.longLineRatio = longLineRatio;
+	}
+
+	public int getLongLineLength()
+	{
+		return longLineLength;
+	}
+
+	public void setLongLineLength( int longLineLength )
+	{
+		this.longLineLength = longLineLength;
+	}
+
+	/**
+	 * Usage: <tt>CorpusGenerator &lt;directory&gt; [seed [depth [fan-out]]]</tt>
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main( String[] args ) throws IOException
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "Usage: CorpusGenerator <directory> [seed [depth [fan-out]]]" );
+			System.exit( 1 );
+		}
+		CorpusGenerator generator = new CorpusGenerator( args.length > 1 ? Long.parseLong( args[1] ) : 42 );
+		if ( args.length > 2 )
+		{
+			generator.setDepth( Integer.parseInt( args[2] ) );
+		}
+		if ( args.length > 3 )
+		{
+			generator.setFanOut( Integer.parseInt( args[3] ) );
+		}
+		int files = generator.generate( new File( args[0] ) );
+		System.out.println( "Generated " + files + " files, " + generator.getGeneratedBytes() + " bytes" );
+	}
+}
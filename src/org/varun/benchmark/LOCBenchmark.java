@@ -1,76 +1,220 @@
 package org.varun.benchmark;
 
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.varun.core.FileMask;
+import org.varun.core.FileWalker;
+import org.varun.core.IOUtil;
 import org.varun.core.LOCCount;
+import org.varun.core.LOCStatistics;
+import org.varun.core.LineClassifier;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * JMH benchmarks for the stages of a scan: line classification, the
+ * binary check, mask matching, directory walking and the complete
+ * {@link LOCCount#scan()}. All of them run against a corpus that the
+ * {@link CorpusGenerator} writes into a temporary directory, so the results
+ * do not depend on the machine they run on.
+ * <p>
+ * Run {@link #main(String[])} to execute the suite; the results are written
+ * as JSON to the file given as first argument, <tt>loc-benchmark.json</tt>
+ * by default, so runs of different engines can be compared.
+ *
  * @author varun
  */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
 public class LOCBenchmark
 {
 
-	private static final String path = "/home/varun/Programming/workspace-jsf/loccount/src";
-	private LOCCount loccnt;
-
 	/**
-	 * 
+	 * A tree from the {@link CorpusGenerator}, created once per trial.
 	 */
-	public LOCBenchmark()
+	@State( Scope.Benchmark )
+	public static class Corpus
 	{
-		super();
-		loccnt = new LOCCount( path, true, false, "*.*", "*.*" );
-	}
+		private static final int MAX_CONTENTS = 8 * 1024 * 1024;
 
-	public void benchmarkJavaIO() throws IOException
-	{
+		@Param( { "42" } )
+		public long seed;
+
+		@Param( { "3" } )
+		public int depth;
 
-		int count = 10;
-		List<Double> times = new ArrayList<Double>( count );
-		Timer timer = new Timer();
+		@Param( { "4" } )
+		public int fanOut;
 
-		for ( int i = 0; i < count; i++ )
+		File root;
+		List<String> names;
+		ByteBuffer contents;
+		int length;
+		LOCCount engine;
+
+		@Setup( Level.Trial )
+		public void create() throws IOException
 		{
-			timer.reset();
-			timer.start();
-			loccnt.process();
-			timer.end();
-			times.add( timer.getTimeInMillis() );
+			root = Files.createTempDirectory( "loc-benchmark" ).toFile();
+			CorpusGenerator generator = new CorpusGenerator( seed );
+			generator.setDepth( depth );
+			generator.setFanOut( fanOut );
+			generator.generate( root );
+
+			// The classifier runs on the generated sources, joined into one
+			// buffer
+			final List<File> sources = new ArrayList<File>();
+			names = new ArrayList<String>();
+			new FileWalker( true ).walk( root, new FileWalker.FileHandler()
+			{
+				public boolean handle( File file, BasicFileAttributes attributes )
+				{
+					names.add( file.getName() );
+					if ( file.getName().endsWith( ".java" ) )
+					{
+						sources.add( file );
+					}
+					return true;
+				}
+			} );
+			contents = ByteBuffer.allocate( MAX_CONTENTS );
+			for ( File source : sources )
+			{
+				byte[] bytes = Files.readAllBytes( source.toPath() );
+				if ( bytes.length > contents.remaining() )
+				{
+					break;
+				}
+				contents.put( bytes );
+			}
+			length = contents.position();
+			engine = new LOCCount( root.getPath(), true, true, "*.java;*.xml", "" );
 		}
 
-		printResults( times, "benchmarkJavaIO" );
+		@TearDown( Level.Trial )
+		public void delete() throws IOException
+		{
+			Files.walkFileTree( root.toPath(), new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException
+				{
+					Files.delete( file );
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory( Path dir, IOException exc ) throws IOException
+				{
+					Files.delete( dir );
+					return FileVisitResult.CONTINUE;
+				}
+			} );
+		}
 	}
 
-	private void printResults( List<Double> times, String name )
+	/**
+	 * Reports the classified lines, so that JMH prints lines per second next
+	 * to the operations per second.
+	 */
+	@State( Scope.Thread )
+	@AuxCounters( AuxCounters.Type.OPERATIONS )
+	public static class LineCounter
 	{
-		Collections.sort( times );
-		long sum = 0;
-		for ( double time : times )
+		public long lines;
+
+		@Setup( Level.Iteration )
+		public void clear()
 		{
-			sum += time;
+			lines = 0;
 		}
-		double avg = sum / ( double ) ( times.size() );
+	}
+
+	private final FileMask includeMask = new FileMask( "*.java;*.xml;Make*" );
 
-		System.out.println( "============ " + name + " ============" );
-		System.out.println( "Total Time : " + sum / 1000D + " secs" );
-		System.out.println( "Max Time   : " + times.get( times.size() - 1 ) / 1000D + " secs" );
-		System.out.println( "Avg Time   : " + avg / 1000D + " secs" );
-		System.out.println( "Min Time   : " + times.get( 0 ) / 1000D + " secs" );
+	@Benchmark
+	public LOCStatistics classify( Corpus corpus, LineCounter counter )
+	{
+		LOCStatistics statistics = new LOCStatistics();
+		LineClassifier.classifyContents( corpus.contents, corpus.length, statistics, true );
+		counter.lines += statistics.getLinesOfCode();
+		return statistics;
+	}
+
+	@Benchmark
+	public boolean isBinary( Corpus corpus )
+	{
+		return IOUtil.isBinary( corpus.contents.array(), 0, Math.min( IOUtil.BINARY_SAMPLE_SIZE, corpus.length ) );
 	}
 
-	public static void main( String[] args )
+	@Benchmark
+	public void matchMasks( Corpus corpus, Blackhole blackhole )
 	{
-		LOCBenchmark benchmark = new LOCBenchmark();
-		try
+		for ( String name : corpus.names )
 		{
-			benchmark.benchmarkJavaIO();
+			blackhole.consume( includeMask.matches( name ) );
 		}
-		catch ( IOException e )
+	}
+
+	@Benchmark
+	public int walk( Corpus corpus )
+	{
+		final int[] count = new int[1];
+		new FileWalker( true ).walk( corpus.root, new FileWalker.FileHandler()
 		{
-			e.printStackTrace();
-		}
+			public boolean handle( File file, BasicFileAttributes attributes )
+			{
+				count[0]++;
+				return true;
+			}
+		} );
+		return count[0];
+	}
+
+	@Benchmark
+	@BenchmarkMode( Mode.AverageTime )
+	@OutputTimeUnit( TimeUnit.MILLISECONDS )
+	public LOCStatistics process( Corpus corpus ) throws IOException
+	{
+		return corpus.engine.scan().getStatistics();
+	}
+
+	public static void main( String[] args ) throws RunnerException
+	{
+		String results = args.length > 0 ? args[0] : "loc-benchmark.json";
+		Options options = new OptionsBuilder().include( LOCBenchmark.class.getSimpleName() ).resultFormat( ResultFormatType.JSON ).result( results ).build();
+		new Runner( options ).run();
 	}
 }
@@ -0,0 +1,385 @@
+package org.varun.core;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads <tt>.zip</tt>, <tt>.jar</tt>, <tt>.tar</tt>, <tt>.tar.gz</tt>,
+ * <tt>.tgz</tt> and single <tt>.gz</tt> files like directories and hands
+ * every entry to an {@link EntryHandler} while the archive is streamed, so
+ * nothing is extracted to disk. Archives inside archives are walked as well.
+ * <p>
+ * Tar files are read in the ustar format, including the long names of GNU
+ * and pax headers.
+ *
+ * @author varun
+ */
+public class ArchiveWalker
+{
+	/**
+	 * Receives the entries found by an {@link ArchiveWalker}.
+	 */
+	public interface EntryHandler
+	{
+		/**
+		 * @param name
+		 *            The path of the entry inside its archive.
+		 * @param size
+		 *            The size of the entry, <code>-1</code> if not known.
+		 * @param in
+		 *            The contents of the entry. It must not be closed.
+		 * @return <code>false</code> to stop the walk.
+		 * @throws IOException
+		 */
+		boolean handle( String name, long size, InputStream in ) throws IOException;
+	}
+
+	private static final int BLOCK_SIZE = 512;
+
+	private static final int ZIP = 1;
+	private static final int TAR = 2;
+	private static final int TAR_GZ = 3;
+	private static final int GZ = 4;
+
+	/**
+	 * @param fileName
+	 * @return <code>true</code> if <tt>fileName</tt> has the extension of an
+	 *         archive this class can read.
+	 */
+	public static boolean isArchive( String fileName )
+	{
+		return typeOf( fileName ) != 0;
+	}
+
+	private static int typeOf( String fileName )
+	{
+		String name = fileName.toLowerCase( Locale.ROOT );
+		if ( name.endsWith( ".zip" ) || name.endsWith( ".jar" ) )
+			return ZIP;
+		if ( name.endsWith( ".tar" ) )
+			return TAR;
+		if ( name.endsWith( ".tar.gz" ) || name.endsWith( ".tgz" ) )
+			return TAR_GZ;
+		if ( name.endsWith( ".gz" ) )
+			return GZ;
+		return 0;
+	}
+
+	/**
+	 * Walks the archive <tt>in</tt>. Entries that are archives themselves are
+	 * walked instead of being handed to <tt>handler</tt>, with their path as
+	 * prefix of the names of their entries.
+	 *
+	 * @param fileName
+	 *            The name of the archive, which tells its type.
+	 * @param in
+	 *            The contents of the archive. It is not closed.
+	 * @param handler
+	 * @return <code>false</code> if <tt>handler</tt> stopped the walk.
+	 * @throws IOException
+	 *             If the archive cannot be read.
+	 */
+	public boolean walk( String fileName, InputStream in, EntryHandler handler ) throws IOException
+	{
+		return walk( fileName, "", in, handler );
+	}
+
+	private boolean walk( String fileName, String prefix, InputStream in, EntryHandler handler ) throws IOException
+	{
+		switch ( typeOf( fileName ) )
+		{
+			case ZIP:
+				return walkZip( prefix, in, handler );
+			case TAR:
+				return walkTar( prefix, in, handler );
+			case TAR_GZ:
+				return walkTar( prefix, new GZIPInputStream( new Unclosable( in ), 8192 ), handler );
+			case GZ:
+				// A single compressed file, named like the archive without
+				// its extension
+				String name = fileName.substring( fileName.lastIndexOf( '/' ) + 1, fileName.length() - 3 );
+				return handle( prefix + name, -1, new GZIPInputStream( new Unclosable( in ), 8192 ), handler );
+			default:
+				throw new IllegalArgumentException( "Not an archive: " + fileName );
+		}
+	}
+
+	private boolean handle( String name, long size, InputStream in, EntryHandler handler ) throws IOException
+	{
+		if ( isArchive( name ) )
+		{
+			return walk( name, name + '/', in, handler );
+		}
+		return handler.handle( name, size, in );
+	}
+
+	private boolean walkZip( String prefix, InputStream in, EntryHandler handler ) throws IOException
+	{
+		ZipInputStream zip = new ZipInputStream( new Unclosable( in ) );
+		ZipEntry entry;
+		while ( ( entry = zip.getNextEntry() ) != null )
+		{
+			if ( !entry.isDirectory() && !handle( prefix + entry.getName(), entry.getSize(), zip, handler ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean walkTar( String prefix, InputStream in, EntryHandler handler ) throws IOException
+	{
+		byte[] header = new byte[BLOCK_SIZE];
+		String longName = null;
+		while ( readBlock( in, header ) && header[0] != 0 )
+		{
+			long size = parseNumber( header, 124, 12 );
+			byte type = header[156];
+			String name = longName;
+			longName = null;
+
+			if ( type == 'L' || type == 'x' )
+			{
+				// The name of the next entry, as GNU long name or pax header
+				byte[] data = readData( in, size );
+				longName = type == 'L' ? parseString( data, 0, data.length ) : paxPath( data );
+			}
+			else if ( type == '0' || type == 0 || type == '7' )
+			{
+				if ( name == null )
+				{
+					name = parseString( header, 0, 100 );
+					String namePrefix = parseString( header, 345, 155 );
+					if ( !namePrefix.isEmpty() && "ustar".equals( parseString( header, 257, 5 ) ) )
+					{
+						name = namePrefix + '/' + name;
+					}
+				}
+				Bounded entry = new Bounded( in, size );
+				if ( !handle( prefix + name, size, entry, handler ) )
+				{
+					return false;
+				}
+				skip( in, entry.remaining );
+			}
+			else
+			{
+				skip( in, size );
+			}
+			skip( in, ( BLOCK_SIZE - size % BLOCK_SIZE ) % BLOCK_SIZE );
+		}
+		return true;
+	}
+
+	private static boolean readBlock( InputStream in, byte[] block ) throws IOException
+	{
+		int length = 0;
+		while ( length < block.length )
+		{
+			int read = in.read( block, length, block.length - length );
+			if ( read < 0 )
+			{
+				if ( length == 0 )
+					return false;
+				throw new EOFException( "Truncated tar header" );
+			}
+			length += read;
+		}
+		return true;
+	}
+
+	private static byte[] readData( InputStream in, long size ) throws IOException
+	{
+		if ( size > Integer.MAX_VALUE )
+		{
+			throw new IOException( "Tar header too large: " + size );
+		}
+		byte[] data = new byte[( int ) size];
+		if ( size > 0 && !readBlock( in, data ) )
+		{
+			throw new EOFException( "Truncated tar header" );
+		}
+		return data;
+	}
+
+	private static void skip( InputStream in, long count ) throws IOException
+	{
+		while ( count > 0 )
+		{
+			long skipped = in.skip( count );
+			if ( skipped <= 0 )
+			{
+				if ( in.read() < 0 )
+					throw new EOFException( "Truncated tar entry" );
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	/**
+	 * Parses an octal number, or a binary one if the first bit is set.
+	 */
+	private static long parseNumber( byte[] header, int offset, int length )
+	{
+		long value = 0;
+		if ( ( header[offset] & 0x80 ) != 0 )
+		{
+			value = header[offset] & 0x7f;
+			for ( int i = 1; i < length; i++ )
+			{
+				value = value << 8 | header[offset + i] & 0xff;
+			}
+			return value;
+		}
+		for ( int i = offset; i < offset + length; i++ )
+		{
+			byte b = header[i];
+			if ( b >= '0' && b <= '7' )
+				value = value * 8 + b - '0';
+			else if ( b != ' ' || value != 0 )
+				break;
+		}
+		return value;
+	}
+
+	private static String parseString( byte[] header, int offset, int length )
+	{
+		int end = offset;
+		while ( end < offset + length && header[end] != 0 )
+		{
+			end++;
+		}
+		return new String( header, offset, end - offset, StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * @return The <tt>path</tt> of a pax header, <code>null</code> if it has
+	 *         none.
+	 */
+	private static String paxPath( byte[] data )
+	{
+		// Records of the form "<length> <key>=<value>\n"
+		int offset = 0;
+		while ( offset < data.length )
+		{
+			int space = offset;
+			while ( space < data.length && data[space] != ' ' )
+			{
+				space++;
+			}
+			int length;
+			try
+			{
+				length = Integer.parseInt( new String( data, offset, space - offset, StandardCharsets.US_ASCII ) );
+			}
+			catch ( NumberFormatException e )
+			{
+				return null;
+			}
+			if ( length <= 0 || offset + length > data.length )
+			{
+				return null;
+			}
+			String record = new String( data, space + 1, offset + length - space - 2, StandardCharsets.UTF_8 );
+			if ( record.startsWith( "path=" ) )
+			{
+				return record.substring( 5 );
+			}
+			offset += length;
+		}
+		return null;
+	}
+
+	/**
+	 * Lets a nested stream be closed without closing the archive.
+	 */
+	private static class Unclosable extends FilterInputStream
+	{
+		Unclosable( InputStream in )
+		{
+			super( in );
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * The contents of a single tar entry.
+	 */
+	private static class Bounded extends FilterInputStream
+	{
+		long remaining;
+
+		Bounded( InputStream in, long size )
+		{
+			super( in );
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if ( remaining <= 0 )
+			{
+				return -1;
+			}
+			int b = in.read();
+			if ( b >= 0 )
+			{
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException
+		{
+			if ( remaining <= 0 )
+			{
+				return -1;
+			}
+			int read = in.read( b, off, ( int ) Math.min( len, remaining ) );
+			if ( read > 0 )
+			{
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip( long n ) throws IOException
+		{
+			long skipped = in.skip( Math.min( n, remaining ) );
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return ( int ) Math.min( in.available(), remaining );
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.varun.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fast non-cryptographic 64 bit hash of file contents, built from the
+ * rounds of xxHash64. It reads eight bytes at a time and is only meant to
+ * find files with identical contents; together with the file size a
+ * collision is very unlikely, but not impossible.
+ *
+ * @author varun
+ */
+final class ContentHash
+{
+	private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME64_3 = 0x165667B19E3779F9L;
+	private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+	private ContentHash()
+	{
+	}
+
+	/**
+	 * Hashes the bytes between <tt>from</tt> and <tt>to</tt>. Large contents
+	 * can be hashed in parts by passing the hash of the previous part as
+	 * <tt>seed</tt>.
+	 *
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @param seed
+	 * @return The hash.
+	 */
+	static long hash( ByteBuffer buffer, int from, int to, long seed )
+	{
+		long hash = seed + PRIME64_5 + ( to - from );
+		int i = from;
+		for ( int last = to - 8; i <= last; i += 8 )
+		{
+			long k = buffer.getLong( i ) * PRIME64_2;
+			k = Long.rotateLeft( k, 31 ) * PRIME64_1;
+			hash ^= k;
+			hash = Long.rotateLeft( hash, 27 ) * PRIME64_1 + PRIME64_4;
+		}
+		for ( ; i < to; i++ )
+		{
+			hash ^= ( buffer.get( i ) & 0xff ) * PRIME64_5;
+			hash = Long.rotateLeft( hash, 11 ) * PRIME64_1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME64_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME64_3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+}
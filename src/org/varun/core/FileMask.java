@@ -0,0 +1,118 @@
+package org.varun.core;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A list of file name masks, compiled once and matched against many file
+ * names. In a mask, <tt>*</tt> stands for {@link Constants#WILD_CHARS} and
+ * everything else is a regular expression.
+ * <p>
+ * Masks of the common form <tt>*.ext</tt> are looked up by extension in a
+ * hash set. All other masks are combined into a single {@link Pattern}.
+ * Both give exactly the same result as matching every mask on its own with
+ * {@link String#matches(String)}.
+ *
+ * @author varun
+ */
+public class FileMask
+{
+	// A *.ext mask whose extension has only word characters
+	private static final Pattern EXTENSION_MASK = Pattern.compile( "\\*\\.[a-zA-Z0-9_]+" );
+
+	private final Set<String> extensions = new HashSet<String>();
+	private final TreeSet<Integer> extensionLengths = new TreeSet<Integer>();
+	private final Pattern pattern;
+
+	/**
+	 * @param masksList
+	 *            Masks separated by {@link Constants#SEMICOLON}.
+	 */
+	public FileMask( String masksList )
+	{
+		StringBuilder regex = new StringBuilder();
+		if ( !masksList.isEmpty() )
+		{
+			for ( String mask : masksList.split( Constants.SEMICOLON ) )
+			{
+				mask = mask.trim();
+				if ( EXTENSION_MASK.matcher( mask ).matches() )
+				{
+					String extension = mask.substring( 2 );
+					extensions.add( extension );
+					extensionLengths.add( extension.length() );
+					continue;
+				}
+				if ( regex.length() > 0 )
+				{
+					regex.append( '|' );
+				}
+				regex.append( "(?:" ).append( mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS ) ).append( ')' );
+			}
+		}
+		pattern = regex.length() > 0 ? Pattern.compile( regex.toString() ) : null;
+	}
+
+	/**
+	 * @param fileName
+	 * @return <code>true</code> if any mask matches <tt>fileName</tt>.
+	 */
+	public boolean matches( String fileName )
+	{
+		if ( !extensions.isEmpty() && matchesExtension( fileName ) )
+		{
+			return true;
+		}
+		return pattern != null && pattern.matcher( fileName ).matches();
+	}
+
+	/**
+	 * A <tt>*.ext</tt> mask means <tt>[a-zA-Z0-9_]*.ext</tt>, where the dot
+	 * is any character but a line terminator. As the prefix and the extension
+	 * have only word characters, the dot has to be the only other character
+	 * of a matching name.
+	 */
+	private boolean matchesExtension( String fileName )
+	{
+		int length = fileName.length();
+		int dot = -1;
+		for ( int i = 0; i < length; i++ )
+		{
+			if ( !isWordChar( fileName.charAt( i ) ) )
+			{
+				if ( dot >= 0 )
+				{
+					return false;
+				}
+				dot = i;
+			}
+		}
+
+		if ( dot >= 0 )
+		{
+			return !isLineTerminator( fileName.charAt( dot ) ) && extensions.contains( fileName.substring( dot + 1 ) );
+		}
+
+		// Only word characters, so the dot stands for one of them
+		for ( int extensionLength : extensionLengths.headSet( length ) )
+		{
+			if ( extensions.contains( fileName.substring( length - extensionLength ) ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWordChar( char c )
+	{
+		return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) || c == '_';
+	}
+
+	private static boolean isLineTerminator( char c )
+	{
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
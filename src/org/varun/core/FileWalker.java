@@ -0,0 +1,233 @@
+package org.varun.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Walks a directory tree with {@link Files#walkFileTree} and hands every file
+ * to a {@link FileHandler} together with the attributes read while listing
+ * its directory. Entries are streamed one by one, so no directory listing is
+ * held in memory, and no additional <code>stat</code> call is needed to tell
+ * files from directories.
+ * <p>
+ * Links are followed unless {@link #setFollowLinks(boolean)} says
+ * otherwise. Every directory is walked once, however many links lead to it:
+ * the walked directories are remembered by their file key, device and inode
+ * on Unix, see {@link BasicFileAttributes#fileKey()}, so neither link loops
+ * nor aliased directories are walked again. Directories that cannot be read
+ * are skipped.
+ * <p>
+ * With {@link #setIgnoreFiles(String...)} the walk honours ignore files such
+ * as <tt>.gitignore</tt>, see {@link IgnoreRules}. An ignored directory is
+ * skipped as soon as it is opened, before any of its entries is read.
+ *
+ * @author varun
+ */
+public class FileWalker
+{
+	/**
+	 * Receives the files found by a {@link FileWalker}.
+	 */
+	public interface FileHandler
+	{
+		/**
+		 * @param file
+		 * @param attributes
+		 *            The attributes of <tt>file</tt>, read during the walk.
+		 * @return <code>false</code> to stop the walk.
+		 */
+		boolean handle( File file, BasicFileAttributes attributes );
+	}
+
+	/**
+	 * Receives the directories walked by a {@link FileWalker}, before their
+	 * entries.
+	 */
+	interface DirectoryHandler
+	{
+		/**
+		 * @param directory
+		 * @param key
+		 *            The key by which <tt>directory</tt> is remembered as
+		 *            walked.
+		 * @param rules
+		 *            The ignore rules for the entries of <tt>directory</tt>,
+		 *            <code>null</code> if no ignore files are read.
+		 * @throws IOException
+		 */
+		void enter( Path directory, Object key, IgnoreRules rules ) throws IOException;
+	}
+
+	private final boolean recursive;
+	private String[] ignoreFiles = {};
+	private boolean followLinks = true;
+
+	/**
+	 * @param recursive
+	 *            Flag to indicate whether sub-directories are walked. If not
+	 *            set, sub-directories are handed to the handler like files.
+	 */
+	public FileWalker( boolean recursive )
+	{
+		this.recursive = recursive;
+	}
+
+	/**
+	 * @param ignoreFiles
+	 *            The names of the ignore files to read in every directory, in
+	 *            ascending order of precedence. None by default.
+	 */
+	public void setIgnoreFiles( String... ignoreFiles )
+	{
+		this.ignoreFiles = ignoreFiles;
+	}
+
+	/**
+	 * @param followLinks
+	 *            Flag to indicate whether links are followed. If not set,
+	 *            links are skipped, except for <tt>directory</tt> itself in
+	 *            {@link #walk(File, FileHandler)}, whose target is walked
+	 *            under its real path. Set by default.
+	 */
+	public void setFollowLinks( boolean followLinks )
+	{
+		this.followLinks = followLinks;
+	}
+
+	/**
+	 * Walks <tt>directory</tt> and hands every entry that is not a walked
+	 * directory to <tt>handler</tt>.
+	 *
+	 * @param directory
+	 * @param handler
+	 */
+	public void walk( File directory, FileHandler handler )
+	{
+		walk( directory, handler, null, new HashSet<Object>(), null );
+	}
+
+	/**
+	 * Walks <tt>directory</tt> like {@link #walk(File, FileHandler)}, as part
+	 * of an earlier walk of one of its ancestors.
+	 *
+	 * @param directory
+	 * @param handler
+	 * @param parentRules
+	 *            The ignore rules for the entries of the parent of
+	 *            <tt>directory</tt>, <code>null</code> to start with the
+	 *            ignore files of <tt>directory</tt>.
+	 * @param visited
+	 *            The keys of the directories walked before, which are not
+	 *            walked again. Receives the keys of the walked directories.
+	 * @param directories
+	 *            Receives every walked directory, may be <code>null</code>.
+	 */
+	void walk( File directory, final FileHandler handler, IgnoreRules parentRules, final Set<Object> visited, final DirectoryHandler directories )
+	{
+		// The ignore rules of the directories being walked, the innermost on
+		// top
+		final Deque<IgnoreRules> ignores = new ArrayDeque<IgnoreRules>();
+		if ( parentRules != null && ignoreFiles.length != 0 )
+		{
+			ignores.push( parentRules );
+		}
+		int maxDepth = recursive ? Integer.MAX_VALUE : 1;
+		try
+		{
+			Path start = directory.toPath();
+			if ( !followLinks && Files.isSymbolicLink( start ) )
+			{
+				start = start.toRealPath();
+			}
+			Set<FileVisitOption> options = followLinks ? EnumSet.of( FileVisitOption.FOLLOW_LINKS ) : EnumSet.noneOf( FileVisitOption.class );
+			Files.walkFileTree( start, options, maxDepth, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs ) throws IOException
+				{
+					// Directories are remembered by their file keys, or by
+					// their real paths where the file system has no keys
+					Object key = attrs.fileKey();
+					if ( key == null )
+					{
+						key = dir.toRealPath();
+					}
+					if ( visited.contains( key ) )
+					{
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					if ( ignoreFiles.length != 0 )
+					{
+						if ( ignores.isEmpty() )
+						{
+							ignores.push( IgnoreRules.NONE.enter( dir, null, ignoreFiles ) );
+						}
+						else
+						{
+							String name = dir.getFileName().toString();
+							if ( ignores.peek().isIgnored( name, true ) )
+							{
+								return FileVisitResult.SKIP_SUBTREE;
+							}
+							ignores.push( ignores.peek().enter( dir, name, ignoreFiles ) );
+						}
+					}
+					visited.add( key );
+					if ( directories != null )
+					{
+						directories.enter( dir, key, ignores.peek() );
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory( Path dir, IOException exc ) throws IOException
+				{
+					ignores.poll();
+					return super.postVisitDirectory( dir, exc );
+				}
+
+				@Override
+				public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+				{
+					if ( attrs.isSymbolicLink() )
+					{
+						// Not followed, or broken
+						return FileVisitResult.CONTINUE;
+					}
+					if ( !ignores.isEmpty() && ignores.peek().isIgnored( file.getFileName().toString(), attrs.isDirectory() ) )
+					{
+						return FileVisitResult.CONTINUE;
+					}
+					if ( !handler.handle( file.toFile(), attrs ) )
+					{
+						return FileVisitResult.TERMINATE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed( Path file, IOException exc )
+				{
+					return FileVisitResult.CONTINUE;
+				}
+			} );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+}
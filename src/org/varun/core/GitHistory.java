@@ -0,0 +1,277 @@
+package org.varun.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Calculates the lines of code of the last commits of a local git repository,
+ * reading the trees and blobs from the repository instead of a checkout. The
+ * statistics of every blob are cached by its id, so each commit only
+ * classifies the blobs that no earlier commit contained.
+ * <p>
+ * The repository is read through the <tt>git</tt> command, which has to be
+ * on the path. Files are filtered by name with the include and exclude masks
+ * like in a recursive scan. Symbolic links and submodules are skipped.
+ *
+ * @author varun
+ */
+public class GitHistory
+{
+	private static final String BLOB_MODE_PREFIX = "100";
+
+
+	private final File repository;
+	private final boolean ignoreEmptyLines;
+	private final FileMask inclFilesMask;
+	private final FileMask exclFilesMask;
+
+	private final Map<String, LOCStatistics> blobStatistics = new HashMap<String, LOCStatistics>();
+	private ByteBuffer buffer = ByteBuffer.allocate( 8192 );
+
+	/**
+	 * The statistics of one commit.
+	 */
+	public static class Revision
+	{
+		private final String commit;
+		private final long commitTime;
+		private final LOCStatistics statistics;
+
+		Revision( String commit, long commitTime, LOCStatistics statistics )
+		{
+			this.commit = commit;
+			this.commitTime = commitTime;
+			this.statistics = statistics;
+		}
+
+		public String getCommit()
+		{
+			return commit;
+		}
+
+		/**
+		 * @return The commit time in milliseconds since the epoch.
+		 */
+		public long getCommitTime()
+		{
+			return commitTime;
+		}
+
+		public LOCStatistics getStatistics()
+		{
+			return statistics;
+		}
+	}
+
+	/**
+	 * @param repository
+	 *            The working tree or git directory of the repository.
+	 * @param ignoreEmptyLines
+	 *            Ignore white spaces while calculating line count.
+	 * @param inclFilesList
+	 * @param exclFilesList
+	 */
+	public GitHistory( File repository, boolean ignoreEmptyLines, String inclFilesList, String exclFilesList )
+	{
+		this.repository = repository;
+		this.ignoreEmptyLines = ignoreEmptyLines;
+		this.inclFilesMask = new FileMask( inclFilesList );
+		this.exclFilesMask = new FileMask( exclFilesList );
+	}
+
+	/**
+	 * Calculates the statistics of the last <tt>commits</tt> commits reachable
+	 * from <tt>HEAD</tt>.
+	 *
+	 * @param commits
+	 * @return The statistics of each commit, oldest first.
+	 * @throws IOException
+	 */
+	public List<Revision> scan( int commits ) throws IOException
+	{
+		List<Revision> revisions = new ArrayList<Revision>();
+		String log = new String( run( "log", "-n", String.valueOf( commits ), "--format=%H %ct", "HEAD" ), StandardCharsets.UTF_8 );
+
+		Process catFile = start( "cat-file", "--batch" );
+		try
+		{
+			OutputStream requests = new BufferedOutputStream( catFile.getOutputStream() );
+			InputStream responses = new BufferedInputStream( catFile.getInputStream() );
+			for ( String line : log.split( "\n" ) )
+			{
+				if ( line.isEmpty() )
+				{
+					continue;
+				}
+				String[] fields = line.split( " " );
+				Logging.log( Level.FINE, "Counting commit: " + fields[0] );
+				LOCStatistics statistics = scanCommit( fields[0], requests, responses );
+				revisions.add( new Revision( fields[0], Long.parseLong( fields[1] ) * 1000, statistics ) );
+			}
+			requests.close();
+		}
+		finally
+		{
+			catFile.destroy();
+		}
+
+		Collections.reverse( revisions );
+		return revisions;
+	}
+
+	private LOCStatistics scanCommit( String commit, OutputStream requests, InputStream responses ) throws IOException
+	{
+		LOCStatistics statistics = new LOCStatistics();
+
+		// Entries look like "<mode> <type> <id>\t<path>" and end with NUL
+		byte[] tree = run( "ls-tree", "-r", "-z", "--full-tree", commit );
+		int start = 0;
+		for ( int i = 0; i < tree.length; i++ )
+		{
+			if ( tree[i] != 0 )
+			{
+				continue;
+			}
+			String entry = new String( tree, start, i - start, StandardCharsets.UTF_8 );
+			start = i + 1;
+
+			int tab = entry.indexOf( '\t' );
+			String[] fields = entry.substring( 0, tab ).split( " " );
+			if ( !fields[1].equals( "blob" ) || !fields[0].startsWith( BLOB_MODE_PREFIX ) )
+			{
+				continue;
+			}
+			String path = entry.substring( tab + 1 );
+			String name = path.substring( path.lastIndexOf( '/' ) + 1 );
+			if ( !inclFilesMask.matches( name ) || exclFilesMask.matches( name ) )
+			{
+				continue;
+			}
+
+			// The same blob may be classified differently under another name
+			Language language = Languages.forFileName( name );
+			String id = fields[2];
+			String key = id + ':' + language.getName();
+			LOCStatistics blob = blobStatistics.get( key );
+			if ( blob == null )
+			{
+				blob = countBlob( id, language, requests, responses );
+				blobStatistics.put( key, blob );
+			}
+			statistics.add( blob );
+		}
+		return statistics;
+	}
+
+	/**
+	 * Reads a blob through <tt>git cat-file --batch</tt> and classifies it.
+	 */
+	private LOCStatistics countBlob( String id, Language language, OutputStream requests, InputStream responses ) throws IOException
+	{
+		requests.write( ( id + "\n" ).getBytes( StandardCharsets.US_ASCII ) );
+		requests.flush();
+
+		// The header is "<id> blob <size>\n", followed by the contents and "\n"
+		String header = readLine( responses );
+		String[] fields = header.split( " " );
+		if ( fields.length != 3 )
+		{
+			throw new IOException( "Unexpected git cat-file output: " + header );
+		}
+		int size = Integer.parseInt( fields[2] );
+		if ( buffer.capacity() < size )
+		{
+			buffer = ByteBuffer.allocate( Math.max( size, buffer.capacity() * 2 ) );
+		}
+		byte[] bytes = buffer.array();
+		for ( int length = 0; length < size; )
+		{
+			int read = responses.read( bytes, length, size - length );
+			if ( read < 0 )
+			{
+				throw new EOFException( "Blob " + id + " ended early" );
+			}
+			length += read;
+		}
+		responses.read();
+
+		LOCStatistics statistics = new LOCStatistics();
+		if ( LineClassifier.classifyContents( buffer, size, statistics, ignoreEmptyLines, language ) )
+			statistics.noOfSourceFiles++;
+		else
+			statistics.noOfNonSourceFiles++;
+		return statistics;
+	}
+
+	private static String readLine( InputStream in ) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ( ( c = in.read() ) != '\n' )
+		{
+			if ( c < 0 )
+			{
+				throw new EOFException( "git cat-file ended early" );
+			}
+			line.append( ( char ) c );
+		}
+		return line.toString();
+	}
+
+	private Process start( String... arguments ) throws IOException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add( "git" );
+		command.add( "-C" );
+		command.add( repository.getPath() );
+		Collections.addAll( command, arguments );
+		return new ProcessBuilder( command ).redirectError( ProcessBuilder.Redirect.INHERIT ).start();
+	}
+
+	/**
+	 * Runs a git command and returns its output.
+	 */
+	private byte[] run( String... arguments ) throws IOException
+	{
+		Process process = start( arguments );
+		process.getOutputStream().close();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream in = process.getInputStream();
+		byte[] bytes = new byte[8192];
+		int read;
+		while ( ( read = in.read( bytes ) ) >= 0 )
+		{
+			output.write( bytes, 0, read );
+		}
+		in.close();
+
+		try
+		{
+			int exitCode = process.waitFor();
+			if ( exitCode != 0 )
+			{
+				throw new IOException( "git " + arguments[0] + " failed with exit code " + exitCode );
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while waiting for git " + arguments[0] );
+		}
+		return output.toByteArray();
+	}
+}
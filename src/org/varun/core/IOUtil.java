@@ -4,8 +4,12 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * @author varun 
@@ -13,10 +17,34 @@ import java.io.Reader;
 public class IOUtil
 {
 
+	/**
+	 * The encoding that {@link #detectEncoding(byte[], int)} returns for
+	 * UTF-8 with a byte order mark.
+	 */
+	public static final String UTF_8_BOM = "UTF-8Y";
+
+	/**
+	 * Number of bytes at the start of a file that
+	 * {@link #isBinary(byte[], int, int)} looks at.
+	 */
+	public static final int BINARY_SAMPLE_SIZE = 4096;
+
 	private static final int BOM16 = 0xfeff;
 	private static final byte[] UTF8BOM =
 	{ ( byte ) 0xef, ( byte ) 0xbb, ( byte ) 0xbf };
 
+	// Control characters that occur in text: BS, TAB, LF, VT, FF, CR, ESC
+	private static final int TEXT_CONTROLS = 1 << 8 | 1 << 9 | 1 << 10 | 1 << 11 | 1 << 12 | 1 << 13 | 1 << 27;
+
+	// Extensions of files that are never text, in lower case
+	private static final Set<String> BINARY_EXTENSIONS = new HashSet<String>( Arrays.asList( new String[]
+	{ "class", "jar", "war", "ear", "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "deb", "rpm", "pkg", "iso", "dmg", //
+			"wav", "mp3", "flac", "wma", "ra", //
+			"jpeg", "jpg", "gif", "png", "tiff", "bmp", "ico", "webp", //
+			"avi", "mpg", "mpeg", "ogg", "mp4", "mkv", "wmv", "rm", "asf", "mov", "3gp", "flv", "m4v", //
+			"pdf", "odt", "odf", "doc", "docx", "ppt", "pptx", "ods", "xls", "xlsx", //
+			"exe", "dll", "so", "dylib", "o", "obj", "a", "lib", "pyc", "ttf", "otf", "woff", "woff2", "eot" } ) );
+
 	private IOUtil()
 	{
 	}
@@ -33,7 +61,19 @@ public class IOUtil
 	{
 		byte[] mark = new byte[4];
 		int count = inputStream.read( mark );
+		return detectEncoding( mark, count );
+	}
 
+	/**
+	 * Same as {@link #detectEncoding(InputStream)}, but inspects the first
+	 * <tt>count</tt> bytes of an array that was already read.
+	 * 
+	 * @param mark
+	 * @param count
+	 * @return The detected encoding or <code>null</code> if there is no BOM.
+	 */
+	public static String detectEncoding( byte[] mark, int count )
+	{
 		byte low = ( byte ) ( BOM16 & 0xff );
 		byte high = ( byte ) ( ( BOM16 >> 8 ) & 0xff );
 		if ( count >= 4 )
@@ -76,26 +116,147 @@ public class IOUtil
 			}
 			if ( i == UTF8BOM.length )
 			{
-				return "UTF-8Y";
+				return UTF_8_BOM;
 			}
 		}
 
 		return null;
 	}
 
+	/**
+	 * @param fileName
+	 * @return <code>true</code> if the extension of <tt>fileName</tt> is one
+	 *         of a binary format, such as a class file or an image.
+	 */
+	public static boolean isBinaryFileName( String fileName )
+	{
+		int dot = fileName.lastIndexOf( '.' );
+		return dot >= 0 && BINARY_EXTENSIONS.contains( fileName.substring( dot + 1 ).toLowerCase( Locale.ROOT ) );
+	}
+
 	public static boolean isBinary( InputStream in ) throws IOException
 	{
 		BufferedInputStream markedStream = getMarkedStream( in );
-		String encoding = detectEncoding( markedStream );
+		byte[] sample = new byte[BINARY_SAMPLE_SIZE];
+		int count = 0;
+		int read;
+		while ( count < sample.length && ( read = markedStream.read( sample, count, sample.length - count ) ) >= 0 )
+		{
+			count += read;
+		}
+		markedStream.reset();
 		// If an encoding is detected, this is a text stream
-		if ( encoding != null )
+		if ( detectEncoding( sample, count ) != null )
 		{
 			return false;
 		}
-		// Read the stream in system default encoding. The encoding
-		// might be wrong. But enough for binary detection.
-		markedStream.reset();
-		return containsNullCharacter( new InputStreamReader( markedStream ) );
+		return isBinary( sample, 0, count );
+	}
+
+	/**
+	 * Tells binary from text by the first {@link #BINARY_SAMPLE_SIZE} bytes
+	 * between <tt>from</tt> and <tt>to</tt>, without decoding them. They are
+	 * binary if they contain a NUL byte, or if too many of them are control
+	 * characters that do not occur in text or bytes that are not part of a
+	 * valid UTF-8 sequence: every control character weighs as much as ten
+	 * bytes, every invalid byte as much as three. Text in a single byte
+	 * encoding such as ISO-8859-1 passes as long as most of it is ASCII.
+	 * <p>
+	 * Contents that start with a byte order mark are not recognized; check
+	 * them with {@link #detectEncoding(byte[], int)} first.
+	 * 
+	 * @param bytes
+	 * @param from
+	 * @param to
+	 * @return <code>true</code> if the bytes are not text.
+	 */
+	public static boolean isBinary( byte[] bytes, int from, int to )
+	{
+		int end = Math.min( to, from + BINARY_SAMPLE_SIZE );
+		int controls = 0;
+		int invalid = 0;
+		int i = from;
+		while ( i < end )
+		{
+			int b = bytes[i] & 0xff;
+			if ( b >= 0x20 && b < 0x7f )
+			{
+				i++;
+			}
+			else if ( b == 0 )
+			{
+				return true;
+			}
+			else if ( b < 0x80 )
+			{
+				if ( b == 0x7f || ( TEXT_CONTROLS & 1 << b ) == 0 )
+				{
+					controls++;
+				}
+				i++;
+			}
+			else
+			{
+				int length = utf8Length( bytes, i, end );
+				if ( length == 0 )
+				{
+					invalid++;
+					length = 1;
+				}
+				i += length;
+			}
+		}
+		return controls * 10 + invalid * 3 > end - from;
+	}
+
+	/**
+	 * @return The length of the UTF-8 sequence at <tt>offset</tt>, or
+	 *         <code>0</code> if it is not valid. A sequence cut off by
+	 *         <tt>end</tt> counts as valid.
+	 */
+	private static int utf8Length( byte[] bytes, int offset, int end )
+	{
+		int lead = bytes[offset] & 0xff;
+		int length;
+		int min = 0x80;
+		int max = 0xbf;
+		if ( lead >= 0xc2 && lead <= 0xdf )
+			length = 2;
+		else if ( lead >= 0xe0 && lead <= 0xef )
+		{
+			length = 3;
+			// No overlong forms and no surrogates
+			if ( lead == 0xe0 )
+				min = 0xa0;
+			else if ( lead == 0xed )
+				max = 0x9f;
+		}
+		else if ( lead >= 0xf0 && lead <= 0xf4 )
+		{
+			length = 4;
+			if ( lead == 0xf0 )
+				min = 0x90;
+			else if ( lead == 0xf4 )
+				max = 0x8f;
+		}
+		else
+			return 0;
+
+		for ( int i = 1; i < length; i++ )
+		{
+			if ( offset + i >= end )
+			{
+				return end - offset;
+			}
+			int b = bytes[offset + i] & 0xff;
+			if ( b < min || b > max )
+			{
+				return 0;
+			}
+			min = 0x80;
+			max = 0xbf;
+		}
+		return length;
 	}
 
 	public static boolean containsNullCharacter( Reader reader ) throws IOException
@@ -137,19 +298,19 @@ public class IOUtil
 
 	/**
 	 * Recursively deletes a directory indicated by the <code>path</code>
-	 * argument.
+	 * argument. Links are deleted, not the files they lead to.
 	 * 
 	 * @param path
 	 * @return
 	 */
 	public static boolean deleteDirectory( File path )
 	{
-		if ( path.exists() )
+		if ( path.exists() && !Files.isSymbolicLink( path.toPath() ) )
 		{
 			File[] files = path.listFiles();
 			for ( File file : files )
 			{
-				if ( file.isDirectory() )
+				if ( file.isDirectory() && !Files.isSymbolicLink( file.toPath() ) )
 				{
 					deleteDirectory( file );
 				}
@@ -0,0 +1,340 @@
+package org.varun.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns of ignore files, such as <tt>.gitignore</tt>, that apply to
+ * the entries of one directory, with the semantics of git: blank lines and
+ * lines starting with <tt>#</tt> are skipped, <tt>!</tt> negates a pattern,
+ * a trailing <tt>/</tt> matches directories only, a pattern with a
+ * <tt>/</tt> elsewhere is relative to the directory of its ignore file and
+ * one without matches names at any depth below it. <tt>*</tt>, <tt>?</tt>,
+ * <tt>[...]</tt> and <tt>**</tt> are supported. Patterns of deeper ignore
+ * files and later lines take precedence. Like git, <tt>.git</tt> is always
+ * ignored, whatever the patterns say.
+ * <p>
+ * Instances are created once per directory while walking down, see
+ * {@link #enter(Path, String, String...)}. Patterns relative to an ancestor
+ * are narrowed on the way down to the part that is left for the entries of
+ * the directory, and dropped as soon as they can no longer match, so most
+ * entries are tested against name patterns only and no path is built for
+ * them.
+ *
+ * @author varun
+ */
+final class IgnoreRules
+{
+	/**
+	 * The names of the ignore files that {@link LOCCount} reads.
+	 */
+	static final String[] IGNORE_FILES = { ".gitignore", ".locignore" };
+
+	/**
+	 * Ignores nothing.
+	 */
+	static final IgnoreRules NONE = new IgnoreRules( new Rule[0], "" );
+
+	private static final String GIT_DIRECTORY = ".git";
+
+	// In order of precedence; the first rule that matches decides
+	private final Rule[] rules;
+
+	// The path of the directory relative to the walked root, ending with
+	// '/' unless it is the root, for rules with "**"
+	private final String path;
+
+	private IgnoreRules( Rule[] rules, String path )
+	{
+		this.rules = rules;
+		this.path = path;
+	}
+
+	/**
+	 * @param name
+	 *            The name of an entry of the directory.
+	 * @param directory
+	 * @return <code>true</code> if the entry is ignored.
+	 */
+	boolean isIgnored( String name, boolean directory )
+	{
+		if ( name.equals( GIT_DIRECTORY ) )
+		{
+			return true;
+		}
+		for ( Rule rule : rules )
+		{
+			if ( ( directory || !rule.directoryOnly ) && rule.matches( name, path ) )
+			{
+				return !rule.negated;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the rules for the entries of a directory that is not ignored.
+	 *
+	 * @param directory
+	 * @param name
+	 *            The name of <tt>directory</tt>, <code>null</code> for the
+	 *            walked root, whose entries only get its own ignore files.
+	 * @param ignoreFiles
+	 *            The names of the ignore files to read from
+	 *            <tt>directory</tt>, in ascending order of precedence.
+	 * @return The rules for the entries of <tt>directory</tt>, this
+	 *         instance if nothing changes.
+	 */
+	IgnoreRules enter( Path directory, String name, String... ignoreFiles )
+	{
+		List<Rule> entered = new ArrayList<Rule>();
+		String childPath = name == null ? "" : path + name + '/';
+		for ( String ignoreFile : ignoreFiles )
+		{
+			readRules( directory.resolve( ignoreFile ), childPath, entered );
+		}
+		boolean changed = !entered.isEmpty();
+		for ( Rule rule : rules )
+		{
+			Rule child = name == null ? rule : rule.enter( name );
+			changed |= child != rule;
+			if ( child != null )
+			{
+				entered.add( child );
+			}
+		}
+		if ( !changed )
+		{
+			return childPath.equals( path ) ? this : new IgnoreRules( rules, childPath );
+		}
+		return new IgnoreRules( entered.toArray( new Rule[entered.size()] ), childPath );
+	}
+
+	/**
+	 * Adds the rules of an ignore file to the front of <tt>rules</tt>, the
+	 * last line first.
+	 */
+	private static void readRules( Path file, String directoryPath, List<Rule> rules )
+	{
+		if ( !Files.isRegularFile( file ) )
+		{
+			return;
+		}
+		String contents;
+		try
+		{
+			contents = new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 );
+		}
+		catch ( IOException e )
+		{
+			Logging.log( Level.WARNING, "Could not read " + file + ": " + e.getMessage() );
+			return;
+		}
+		List<Rule> parsed = new ArrayList<Rule>();
+		for ( String line : contents.split( "\r?\n|\r" ) )
+		{
+			Rule rule = parse( line );
+			if ( rule != null )
+			{
+				parsed.add( 0, rule.at( directoryPath ) );
+			}
+		}
+		rules.addAll( 0, parsed );
+	}
+
+	/**
+	 * @return The rule of a line of an ignore file, <code>null</code> for
+	 *         blank lines and comments.
+	 */
+	static Rule parse( String line )
+	{
+		// Trailing blanks are removed unless they are escaped
+		int end = line.length();
+		while ( end > 0 && line.charAt( end - 1 ) == ' ' && ( end < 2 || line.charAt( end - 2 ) != '\\' ) )
+		{
+			end--;
+		}
+		String pattern = line.substring( 0, end );
+		if ( pattern.isEmpty() || pattern.startsWith( "#" ) )
+		{
+			return null;
+		}
+
+		boolean negated = pattern.startsWith( "!" );
+		if ( negated )
+			pattern = pattern.substring( 1 );
+		else if ( pattern.startsWith( "\\#" ) || pattern.startsWith( "\\!" ) )
+			pattern = pattern.substring( 1 );
+
+		boolean directoryOnly = pattern.endsWith( "/" );
+		if ( directoryOnly )
+		{
+			pattern = pattern.substring( 0, pattern.length() - 1 );
+		}
+		if ( pattern.startsWith( "**/" ) && pattern.indexOf( '/', 3 ) < 0 )
+		{
+			// Same as a name at any depth
+			pattern = pattern.substring( 3 );
+		}
+		if ( pattern.isEmpty() )
+		{
+			return null;
+		}
+
+		if ( pattern.indexOf( '/' ) < 0 )
+		{
+			return new Rule( negated, directoryOnly, null, Pattern.compile( toRegex( pattern ) ), null );
+		}
+		if ( pattern.startsWith( "/" ) )
+		{
+			pattern = pattern.substring( 1 );
+		}
+		if ( pattern.contains( "**" ) )
+		{
+			return new Rule( negated, directoryOnly, null, null, Pattern.compile( toRegex( pattern ) ) );
+		}
+		String[] parts = pattern.split( "/+" );
+		Pattern[] segments = new Pattern[parts.length];
+		for ( int i = 0; i < parts.length; i++ )
+		{
+			segments[i] = Pattern.compile( toRegex( parts[i] ) );
+		}
+		return new Rule( negated, directoryOnly, segments, null, null );
+	}
+
+	/**
+	 * Translates a glob into a regular expression, where <tt>*</tt> and
+	 * <tt>?</tt> do not match <tt>/</tt>, <tt>**</tt> matches any number of
+	 * directories and <tt>\</tt> escapes the next character.
+	 */
+	static String toRegex( String glob )
+	{
+		StringBuilder regex = new StringBuilder();
+		int length = glob.length();
+		for ( int i = 0; i < length; i++ )
+		{
+			char c = glob.charAt( i );
+			if ( c == '*' )
+			{
+				if ( i + 1 < length && glob.charAt( i + 1 ) == '*' )
+				{
+					boolean segmentStart = i == 0 || glob.charAt( i - 1 ) == '/';
+					boolean segmentEnd = i + 2 == length || glob.charAt( i + 2 ) == '/';
+					i++;
+					if ( segmentStart && segmentEnd )
+					{
+						if ( i + 1 < length )
+						{
+							// "**/": no or any directories
+							regex.append( "(?:.*/)?" );
+							i++;
+						}
+						else
+							regex.append( ".*" );
+						continue;
+					}
+				}
+				regex.append( "[^/]*" );
+			}
+			else if ( c == '?' )
+				regex.append( "[^/]" );
+			else if ( c == '[' && glob.indexOf( ']', i + 2 ) > 0 )
+			{
+				int close = glob.indexOf( ']', i + 2 );
+				String set = glob.substring( i + 1, close );
+				if ( set.startsWith( "!" ) )
+				{
+					set = "^" + set.substring( 1 );
+				}
+				regex.append( '[' ).append( set.replace( "\\", "\\\\" ).replace( "[", "\\[" ) ).append( ']' );
+				i = close;
+			}
+			else if ( c == '\\' && i + 1 < length )
+				regex.append( Pattern.quote( String.valueOf( glob.charAt( ++i ) ) ) );
+			else
+				regex.append( Pattern.quote( String.valueOf( c ) ) );
+		}
+		return regex.toString();
+	}
+
+	/**
+	 * A single pattern. It either matches names at any depth, names at the
+	 * end of a number of directory names still to be matched, or, if it
+	 * contains <tt>**</tt>, whole paths relative to its ignore file.
+	 */
+	static final class Rule
+	{
+		final boolean negated;
+		final boolean directoryOnly;
+		private final Pattern[] segments;
+		private final Pattern name;
+		private final Pattern path;
+
+		// The part of the path of a directory that belongs to the ancestors
+		// of the ignore file, for rules with "**"
+		private final int base;
+
+		Rule( boolean negated, boolean directoryOnly, Pattern[] segments, Pattern name, Pattern path )
+		{
+			this( negated, directoryOnly, segments, name, path, 0 );
+		}
+
+		private Rule( boolean negated, boolean directoryOnly, Pattern[] segments, Pattern name, Pattern path, int base )
+		{
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+			this.segments = segments;
+			this.name = name;
+			this.path = path;
+			this.base = base;
+		}
+
+		boolean matches( String entry, String directoryPath )
+		{
+			if ( name != null )
+				return name.matcher( entry ).matches();
+			if ( segments != null )
+				return segments.length == 1 && segments[0].matcher( entry ).matches();
+			return path.matcher( directoryPath.substring( base ) + entry ).matches();
+		}
+
+		/**
+		 * @return The rule for the entries of the sub-directory
+		 *         <tt>directory</tt>, <code>null</code> if it cannot match
+		 *         any of them.
+		 */
+		Rule enter( String directory )
+		{
+			if ( name != null )
+			{
+				return this;
+			}
+			if ( segments != null )
+			{
+				if ( segments.length == 1 || !segments[0].matcher( directory ).matches() )
+				{
+					return null;
+				}
+				Pattern[] rest = new Pattern[segments.length - 1];
+				System.arraycopy( segments, 1, rest, 0, rest.length );
+				return new Rule( negated, directoryOnly, rest, null, null );
+			}
+			return this;
+		}
+
+		/**
+		 * @return This rule, read from the ignore file of the directory with
+		 *         the relative path <tt>directoryPath</tt>.
+		 */
+		Rule at( String directoryPath )
+		{
+			return path == null ? this : new Rule( negated, directoryOnly, null, null, path, directoryPath.length() );
+		}
+	}
+}
@@ -1,55 +1,129 @@
 package org.varun.core;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.logging.ConsoleHandler;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * The {@code LOCCount} class calculates lines of code in a given file or all
  * files in a directory or all files in a directory and its sub-directories. It
  * can ignore white spaces while calculating LOC count and report the no. of
  * white spaces.
+ * <p>
+ * An instance is configured once and can then run any number of scans, also
+ * at the same time from several threads. Each {@link #scan()} works on a
+ * private copy of the configuration with its own counters, metrics and file
+ * list, and returns them as a new {@link LOCResult}. Configure the instance
+ * before the scans start; a running scan does not see later changes. The
+ * threads of the parallel mode are kept between scans until {@link #close()}.
  * 
  * @author varun
  */
-public class LOCCount
+public class LOCCount implements Closeable
 {
-	private int noOfSourceFiles;
-	private int noOfNonSourceFiles;
-
-	private int linesOfCode;
-	private int effectiveLinesOfCode;
-	private int ineffectiveLinesOfCode;
-	private int importStatements;
-	private int packageStatements;
-	private int commentedLines;
-	private int emptyLines;
+	private LOCStatistics statistics = new LOCStatistics();
+	private volatile LOCResult result;
+	private String fileLocation;
+	private boolean scanRecursive;
 	private List<File> fileList;
 	private boolean ignoreEmptyLines;
 	private Listener listener;
+	private int parallelism = 1;
+	private long mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+	private boolean pipelined;
+	private boolean threadPerFile;
+	private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+	private ScanCache scanCache;
+	private boolean deduplicate;
+	private boolean scanArchives;
+	private boolean useIgnoreFiles;
+	private boolean followLinks = true;
+	private boolean publishMetrics;
+	private final ScanMetrics metrics = new ScanMetrics();
 
-	private boolean isMultiLineCommentStarted = false;
-	private boolean isMultiLineStatementStarted = false;
+	// Threads of the parallel mode; the instance that is configured keeps
+	// them for all its scans, see getPool()
+	private ForkJoinPool pool;
 
-	private HashSet<String> fileNameSetToBeIncluded;
-	private HashSet<String> fileNameSetToBeExcluded;
+	// Statistics of classified contents, used in deduplicate mode
+	private final Map<ContentKey, LOCStatistics> contentMemo = new ConcurrentHashMap<ContentKey, LOCStatistics>();
+	private final LongAdder duplicateFiles = new LongAdder();
+	private final LongAdder duplicateBytes = new LongAdder();
 
-	private static final Logger logger = Logger.getLogger( "loccount" );
+	private FileMask inclFilesMask;
+	private FileMask exclFilesMask;
 
 	/**
-	 * Constructor. Forms a list of files for which to calculate lines of code
-	 * count.
+	 * Files of at least this many bytes are memory mapped by default.
+	 */
+	public static final long DEFAULT_MAPPING_THRESHOLD = 4 * 1024 * 1024;
+
+	// Largest region of a file that is mapped at once
+	private static final long MAPPING_WINDOW = 64 * 1024 * 1024;
+
+	// Read ahead of the compressed stream of an archive
+	private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum number of files waiting between the walker and the counting
+	 * threads in pipelined mode.
+	 */
+	public static final int PIPELINE_CAPACITY = 1024;
+
+	/**
+	 * Default number of files open at the same time in thread per file mode.
+	 */
+	public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+	// Tells a counting thread that the walker has published all files
+	private static final File END_OF_FILES = new File( "" );
+
+
+	// Read buffer of each counting thread, reused for every file it reads
+	private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate( 8192 );
+		}
+	};
+
+	/**
+	 * Constructor. The list of files for which to calculate lines of code
+	 * count is formed on first use, see {@link #getFileList()}.
 	 * 
 	 * @param fileLocation
 	 *            Can be a file or directory.
@@ -60,238 +134,1305 @@ public class LOCCount
 	 *            Ignore white spaces while calculating line count.
 	 * @param string 
 	 */
-	public LOCCount( String fileLocation, boolean scanRecursive, boolean ignoreEmptyLines, String inclFilesList, String exclFilesList )
+	public LOCCount( String fileLocation, boolean scanRecursive, boolean ignoreEmptyLines, String inclFilesList, String exclFilesList )
+	{
+
+		this.ignoreEmptyLines = ignoreEmptyLines;
+
+		this.fileLocation = fileLocation;
+		this.scanRecursive = scanRecursive;
+
+		inclFilesMask = new FileMask( inclFilesList );
+		exclFilesMask = new FileMask( exclFilesList );
+	}
+
+	/**
+	 * Copies the configuration of <tt>engine</tt> for a single scan of
+	 * <tt>fileLocation</tt>.
+	 */
+	private LOCCount( LOCCount engine, String fileLocation )
+	{
+		this.fileLocation = fileLocation;
+		scanRecursive = engine.scanRecursive;
+		ignoreEmptyLines = engine.ignoreEmptyLines;
+		inclFilesMask = engine.inclFilesMask;
+		exclFilesMask = engine.exclFilesMask;
+		listener = engine.listener;
+		parallelism = engine.parallelism;
+		mappingThreshold = engine.mappingThreshold;
+		pipelined = engine.pipelined;
+		threadPerFile = engine.threadPerFile;
+		maxOpenFiles = engine.maxOpenFiles;
+		scanCache = engine.scanCache;
+		deduplicate = engine.deduplicate;
+		scanArchives = engine.scanArchives;
+		useIgnoreFiles = engine.useIgnoreFiles;
+		followLinks = engine.followLinks;
+		publishMetrics = engine.publishMetrics;
+	}
+
+	public long getLoc()
+	{
+		return getResult().getLoc();
+	}
+
+	public long getEmptyLines()
+	{
+		return getResult().getEmptyLines();
+	}
+
+	/**
+	 * @return A copy of the counters gathered by the last {@link #process()}.
+	 */
+	public LOCStatistics getStatistics()
+	{
+		return getResult().getStatistics();
+	}
+
+	/**
+	 * @return The result of the last {@link #process()}, or an empty one.
+	 */
+	public LOCResult getResult()
+	{
+		LOCResult last = result;
+		return last != null ? last : newResult();
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of threads used by {@link #process()}. A value greater
+	 * than one splits the file list across a {@link ForkJoinPool}; the totals
+	 * are the same as with the sequential scan.
+	 * 
+	 * @param parallelism
+	 */
+	public void setParallelism( int parallelism )
+	{
+		if ( parallelism < 1 )
+		{
+			throw new IllegalArgumentException( "Parallelism must be at least 1: " + parallelism );
+		}
+		this.parallelism = parallelism;
+	}
+
+	public long getMappingThreshold()
+	{
+		return mappingThreshold;
+	}
+
+	/**
+	 * Sets the size in bytes from which files are memory mapped instead of
+	 * being read through a heap buffer. Use {@link Long#MAX_VALUE} to never
+	 * map files.
+	 * 
+	 * @param mappingThreshold
+	 */
+	public void setMappingThreshold( long mappingThreshold )
+	{
+		this.mappingThreshold = mappingThreshold;
+	}
+
+	public boolean isPipelined()
+	{
+		return pipelined;
+	}
+
+	/**
+	 * Sets the pipelined mode. In this mode {@link #process()} does not form
+	 * the complete file list first; the walker publishes files into a queue
+	 * of at most {@link #PIPELINE_CAPACITY} files while
+	 * {@link #getParallelism()} threads count them. The walker waits whenever
+	 * the queue is full, so memory stays flat regardless of the tree size.
+	 * 
+	 * @param pipelined
+	 */
+	public void setPipelined( boolean pipelined )
+	{
+		this.pipelined = pipelined;
+	}
+
+	public boolean isThreadPerFile()
+	{
+		return threadPerFile;
+	}
+
+	/**
+	 * Sets the thread per file mode, meant for file systems where opening and
+	 * reading a file has a high latency, such as network mounts. In this mode
+	 * {@link #process()} counts every file on its own virtual thread while the
+	 * walk goes on, with at most {@link #getMaxOpenFiles()} files in flight.
+	 * On a Java runtime without virtual threads, a pool of
+	 * {@link #getMaxOpenFiles()} platform threads is used instead. This mode
+	 * takes precedence over the pipelined mode and {@link #getParallelism()}.
+	 * 
+	 * @param threadPerFile
+	 */
+	public void setThreadPerFile( boolean threadPerFile )
+	{
+		this.threadPerFile = threadPerFile;
+	}
+
+	public int getMaxOpenFiles()
+	{
+		return maxOpenFiles;
+	}
+
+	/**
+	 * Sets the number of files that are counted at the same time in thread
+	 * per file mode.
+	 * 
+	 * @param maxOpenFiles
+	 */
+	public void setMaxOpenFiles( int maxOpenFiles )
+	{
+		if ( maxOpenFiles < 1 )
+		{
+			throw new IllegalArgumentException( "Max open files must be at least 1: " + maxOpenFiles );
+		}
+		this.maxOpenFiles = maxOpenFiles;
+	}
+
+	public ScanCache getScanCache()
+	{
+		return scanCache;
+	}
+
+	/**
+	 * Sets a cache of file statistics. {@link #process()} then only reads the
+	 * files whose size or last modified time changed, and saves the cache
+	 * when it is done.
+	 * 
+	 * @param scanCache
+	 */
+	public void setScanCache( ScanCache scanCache )
+	{
+		this.scanCache = scanCache;
+	}
+
+	/**
+	 * @return The file or directory to calculate lines of code for.
+	 */
+	public File getFileLocation()
+	{
+		return new File( fileLocation );
+	}
+
+	public boolean isScanRecursive()
+	{
+		return scanRecursive;
+	}
+
+	public boolean isIgnoreEmptyLines()
+	{
+		return ignoreEmptyLines;
+	}
+
+	public boolean isDeduplicate()
+	{
+		return deduplicate;
+	}
+
+	/**
+	 * Sets the deduplicate mode. In this mode the contents of every file are
+	 * hashed first, and files with the same contents as an already classified
+	 * file reuse its statistics. Duplicates are still counted once per
+	 * occurrence. Archive entries of more than 64 MB are counted without
+	 * being compared, as they cannot be read twice.
+	 * 
+	 * @param deduplicate
+	 */
+	public void setDeduplicate( boolean deduplicate )
+	{
+		this.deduplicate = deduplicate;
+	}
+
+	public boolean isScanArchives()
+	{
+		return scanArchives;
+	}
+
+	/**
+	 * Sets whether archives are counted like directories. Archives are the
+	 * files that {@link ArchiveWalker#isArchive(String)} accepts; their
+	 * entries are streamed into the classifier without being extracted, and
+	 * the include and exclude masks apply to the entry names. Archives are
+	 * not kept in the {@link ScanCache}, as their results depend on the masks.
+	 * 
+	 * @param scanArchives
+	 */
+	public void setScanArchives( boolean scanArchives )
+	{
+		this.scanArchives = scanArchives;
+	}
+
+	public boolean isUseIgnoreFiles()
+	{
+		return useIgnoreFiles;
+	}
+
+	/**
+	 * Sets whether the <tt>.gitignore</tt> and <tt>.locignore</tt> files in
+	 * the walked directories are honoured, with the semantics of git. Ignored
+	 * directories are not walked at all; the masks still apply to the files
+	 * that are not ignored.
+	 * 
+	 * @param useIgnoreFiles
+	 */
+	public void setUseIgnoreFiles( boolean useIgnoreFiles )
+	{
+		this.useIgnoreFiles = useIgnoreFiles;
+	}
+
+	public boolean isFollowLinks()
+	{
+		return followLinks;
+	}
+
+	/**
+	 * Sets whether links are followed while walking. Either way every
+	 * directory is walked at most once, so links that lead back into the tree
+	 * are neither walked in circles nor counted twice. Set by default.
+	 * 
+	 * @param followLinks
+	 */
+	public void setFollowLinks( boolean followLinks )
+	{
+		this.followLinks = followLinks;
+	}
+
+	/**
+	 * @return The number of files that were not classified because a file
+	 *         with the same contents had been classified before.
+	 */
+	public long getDuplicateFiles()
+	{
+		return getResult().getDuplicateFiles();
+	}
+
+	/**
+	 * @return The total size of the files counted by
+	 *         {@link #getDuplicateFiles()}.
+	 */
+	public long getDuplicateBytes()
+	{
+		return getResult().getDuplicateBytes();
+	}
+
+	/**
+	 * @return A copy of the metrics of the last {@link #process()}.
+	 */
+	public ScanMetrics getMetrics()
+	{
+		return getResult().getMetrics();
+	}
+
+	public boolean isPublishMetrics()
+	{
+		return publishMetrics;
+	}
+
+	/**
+	 * @param publishMetrics
+	 *            Flag to indicate whether the metrics of every scan are
+	 *            published as an MBean while the scan runs.
+	 */
+	public void setPublishMetrics( boolean publishMetrics )
+	{
+		this.publishMetrics = publishMetrics;
+	}
+
+	/**
+	 * Runs a {@link #scan()} and keeps its result for {@link #getResult()}
+	 * and the other getters, replacing the result of the previous call.
+	 * 
+	 * @throws IOException
+	 */
+	public void process() throws IOException
+	{
+		result = scan();
+	}
+
+	/**
+	 * Walks the file location again and counts the files found to calculate
+	 * lines of code and white space counts. Binary files are ignored. Scans
+	 * may run concurrently.
+	 * 
+	 * @return The result of this scan alone.
+	 * @throws IOException
+	 */
+	public LOCResult scan() throws IOException
+	{
+		return scan( getFileLocation() );
+	}
+
+	/**
+	 * Scans <tt>fileLocation</tt> instead of the file location of this
+	 * instance, with the same configuration, like {@link #scan()}.
+	 * 
+	 * @param fileLocation
+	 *            Can be a file or directory.
+	 * @return The result of this scan alone.
+	 * @throws IOException
+	 */
+	public LOCResult scan( File fileLocation ) throws IOException
+	{
+		LOCCount worker = new LOCCount( this, fileLocation.getPath() );
+		if ( parallelism > 1 && !threadPerFile && !pipelined )
+		{
+			worker.pool = getPool();
+		}
+		worker.count();
+		return worker.newResult();
+	}
+
+	/**
+	 * @return The pool of the parallel mode, created on first use and when
+	 *         the parallelism has changed.
+	 */
+	private synchronized ForkJoinPool getPool()
+	{
+		if ( pool == null || pool.getParallelism() != parallelism )
+		{
+			if ( pool != null )
+			{
+				// Scans still running on it complete
+				pool.shutdown();
+			}
+			pool = new ForkJoinPool( parallelism );
+		}
+		return pool;
+	}
+
+	/**
+	 * Stops the threads kept for the parallel mode. Scans still running
+	 * complete, and a later scan starts new threads.
+	 */
+	public synchronized void close()
+	{
+		if ( pool != null )
+		{
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Forgets the result of the last {@link #process()} and the file list
+	 * formed by {@link #getFileList()}.
+	 */
+	public void reset()
+	{
+		result = null;
+		fileList = null;
+	}
+
+	private LOCResult newResult()
+	{
+		return new LOCResult( getFileLocation(), ignoreEmptyLines, deduplicate, statistics, duplicateFiles.sum(), duplicateBytes.sum(), metrics );
+	}
+
+	/**
+	 * Counts the files of this scan into its own counters.
+	 * 
+	 * @throws IOException
+	 */
+	private void count() throws IOException
+	{
+		Logging.log( Level.INFO, "Calculating loc count..." );
+
+		metrics.start();
+		if ( publishMetrics )
+		{
+			metrics.publish();
+		}
+		try
+		{
+			if ( threadPerFile )
+			{
+				statistics.add( processThreadPerFile() );
+			}
+			else if ( pipelined )
+			{
+				statistics.add( processPipelined() );
+			}
+			else
+			{
+				processFileList();
+			}
+
+			if ( scanCache != null )
+			{
+				scanCache.save();
+			}
+		}
+		finally
+		{
+			metrics.stop();
+			if ( publishMetrics )
+			{
+				metrics.unpublish();
+			}
+		}
+
+		Logging.log( Level.INFO, "Done." );
+	}
+
+	/**
+	 * Counts the files of {@link #getFileList()}, sequentially or on a
+	 * {@link ForkJoinPool}.
+	 * 
+	 * @throws IOException
+	 */
+	private void processFileList() throws IOException
+	{
+		List<File> fileList = getFileList();
+		if ( listener != null )
+		{
+			listener.setMaxSize( fileList.size() );
+		}
+
+		if ( parallelism > 1 )
+		{
+			try
+			{
+				statistics.add( pool.invoke( new CountTask( fileList, 0, fileList.size(), new AtomicInteger() ) ) );
+			}
+			catch ( UncheckedIOException e )
+			{
+				throw e.getCause();
+			}
+		}
+		else
+		{
+			int count = 0;
+			for ( File file : fileList )
+			{
+				if ( listener != null )
+				{
+					count++;
+					listener.setCount( count );
+				}
+				statistics.add( countFile( file ) );
+			}
+		}
+	}
+
+	/**
+	 * Walks the files on one thread and counts them on
+	 * {@link #getParallelism()} other threads at the same time.
+	 * 
+	 * @return The statistics of all files.
+	 * @throws IOException
+	 */
+	private LOCStatistics processPipelined() throws IOException
+	{
+		final BlockingQueue<File> queue = new ArrayBlockingQueue<File>( PIPELINE_CAPACITY );
+		final AtomicInteger found = new AtomicInteger();
+		final AtomicInteger count = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool( parallelism + 1 );
+		CompletionService<LOCStatistics> completionService = new ExecutorCompletionService<LOCStatistics>( executor );
+		try
+		{
+			completionService.submit( new Callable<LOCStatistics>()
+			{
+				public LOCStatistics call() throws InterruptedException
+				{
+					// Time spent waiting for a full queue is not walk time
+					final long[] waiting = new long[1];
+					long start = System.nanoTime();
+					try
+					{
+						findFiles( new FileWalker.FileHandler()
+						{
+							public boolean handle( File file, BasicFileAttributes attributes )
+							{
+								long putStart = System.nanoTime();
+								try
+								{
+									queue.put( file );
+								}
+								catch ( InterruptedException e )
+								{
+									Thread.currentThread().interrupt();
+									return false;
+								}
+								waiting[0] += System.nanoTime() - putStart;
+								if ( listener != null )
+								{
+									listener.setMaxSize( found.incrementAndGet() );
+								}
+								return true;
+							}
+						} );
+					}
+					finally
+					{
+						metrics.addTime( ScanMetrics.WALK, System.nanoTime() - start - waiting[0] );
+						for ( int i = 0; i < parallelism; i++ )
+						{
+							queue.put( END_OF_FILES );
+						}
+					}
+					return null;
+				}
+			} );
+
+			for ( int i = 0; i < parallelism; i++ )
+			{
+				completionService.submit( new Callable<LOCStatistics>()
+				{
+					public LOCStatistics call() throws IOException, InterruptedException
+					{
+						LOCStatistics result = new LOCStatistics();
+						File file;
+						while ( ( file = queue.take() ) != END_OF_FILES )
+						{
+							result.add( countFile( file ) );
+							if ( listener != null )
+							{
+								listener.setCount( count.incrementAndGet() );
+							}
+						}
+						return result;
+					}
+				} );
+			}
+
+			// Take the tasks as they complete, so that a failure is seen
+			// before waiting for a walker that can no longer make progress
+			LOCStatistics result = new LOCStatistics();
+			for ( int i = 0; i < parallelism + 1; i++ )
+			{
+				LOCStatistics workerResult = completionService.take().get();
+				if ( workerResult != null )
+				{
+					result.add( workerResult );
+				}
+			}
+			return result;
+		}
+		catch ( ExecutionException e )
+		{
+			Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			if ( cause instanceof UncheckedIOException )
+				throw ( ( UncheckedIOException ) cause ).getCause();
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw ( RuntimeException ) cause;
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while counting" );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Walks the files on the current thread and counts each of them on its own
+	 * thread, see {@link #setThreadPerFile(boolean)}. Every file in flight
+	 * takes one of {@link #getMaxOpenFiles()} slots, which holds the walk
+	 * while all are taken. A slot has its own read buffer and statistics, so
+	 * the threads share no counters and the statistics are merged once per
+	 * slot, not once per file.
+	 * 
+	 * @return The statistics of all files.
+	 * @throws IOException
+	 */
+	private LOCStatistics processThreadPerFile() throws IOException
+	{
+		final BlockingQueue<Integer> freeSlots = new ArrayBlockingQueue<Integer>( maxOpenFiles );
+		final ByteBuffer[] buffers = new ByteBuffer[maxOpenFiles];
+		final LOCStatistics[] slotStatistics = new LOCStatistics[maxOpenFiles];
+		for ( int i = 0; i < maxOpenFiles; i++ )
+		{
+			freeSlots.add( i );
+			slotStatistics[i] = new LOCStatistics();
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicInteger found = new AtomicInteger();
+		final AtomicInteger count = new AtomicInteger();
+
+		final ExecutorService executor = newThreadPerFileExecutor();
+		try
+		{
+			findFiles( new FileWalker.FileHandler()
+			{
+				public boolean handle( final File file, BasicFileAttributes attributes )
+				{
+					final int slot;
+					try
+					{
+						slot = freeSlots.take();
+					}
+					catch ( InterruptedException e )
+					{
+						Thread.currentThread().interrupt();
+						return false;
+					}
+					if ( failure.get() != null )
+					{
+						freeSlots.add( slot );
+						return false;
+					}
+					if ( listener != null )
+					{
+						listener.setMaxSize( found.incrementAndGet() );
+					}
+
+					executor.execute( new Runnable()
+					{
+						public void run()
+						{
+							if ( buffers[slot] != null )
+							{
+								BUFFER.set( buffers[slot] );
+							}
+							try
+							{
+								slotStatistics[slot].add( countFile( file ) );
+								if ( listener != null )
+								{
+									listener.setCount( count.incrementAndGet() );
+								}
+							}
+							catch ( Throwable e )
+							{
+								failure.compareAndSet( null, e );
+							}
+							finally
+							{
+								buffers[slot] = BUFFER.get();
+								BUFFER.remove();
+								freeSlots.add( slot );
+							}
+						}
+					} );
+					return true;
+				}
+			} );
+
+			// Wait for the files in flight
+			for ( int i = 0; i < maxOpenFiles; i++ )
+			{
+				freeSlots.take();
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while counting" );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		Throwable cause = failure.get();
+		if ( cause != null )
+		{
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			if ( cause instanceof UncheckedIOException )
+				throw ( ( UncheckedIOException ) cause ).getCause();
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw ( RuntimeException ) cause;
+		}
+		LOCStatistics result = new LOCStatistics();
+		for ( LOCStatistics statistics : slotStatistics )
+		{
+			result.add( statistics );
+		}
+		return result;
+	}
+
+	/**
+	 * Creates an executor that starts a virtual thread per task. Virtual
+	 * threads are looked up by reflection, so this class still runs on older
+	 * Java runtimes, which get a fixed pool of {@link #getMaxOpenFiles()}
+	 * threads.
+	 */
+	private ExecutorService newThreadPerFileExecutor()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return ( ExecutorService ) factory.invoke( null );
+		}
+		catch ( ReflectiveOperationException e )
+		{
+			Logging.log( Level.INFO, "Virtual threads are not available, using " + maxOpenFiles + " threads" );
+			return Executors.newFixedThreadPool( maxOpenFiles );
+		}
+	}
+
+	/**
+	 * Calculates the statistics of a single file, taking them from the
+	 * {@link ScanCache} if the file is unchanged. Files with the extension of
+	 * a binary format, see {@link IOUtil#isBinaryFileName(String)}, count as
+	 * non-source files without being opened.
+	 * 
+	 * @param file
+	 * @return The statistics of <tt>file</tt>.
+	 * @throws IOException
+	 */
+	LOCStatistics countFile( File file ) throws IOException
+	{
+		metrics.fileCounted();
+		if ( scanArchives && ArchiveWalker.isArchive( file.getName() ) )
+		{
+			return countArchive( file );
+		}
+		if ( IOUtil.isBinaryFileName( file.getName() ) )
+		{
+			return binaryFile();
+		}
+		if ( scanCache == null )
+		{
+			return readFile( file );
+		}
+
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes( file.toPath(), BasicFileAttributes.class );
+		}
+		catch ( NoSuchFileException e )
+		{
+			FileNotFoundException notFound = new FileNotFoundException( file.getPath() );
+			notFound.initCause( e );
+			throw notFound;
+		}
+		String path = file.getCanonicalPath();
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		LOCStatistics fileStatistics = scanCache.get( path, size, lastModified, ignoreEmptyLines );
+		if ( fileStatistics == null )
+		{
+			fileStatistics = readFile( file );
+			scanCache.put( path, size, lastModified, ignoreEmptyLines, fileStatistics );
+		}
+		return new LOCStatistics().add( fileStatistics );
+	}
+
+	/**
+	 * Reads a single file and calculates its statistics. Each call uses its
+	 * own {@link LineClassifier}, so multi-line comments and statements never
+	 * leak from one file into the next. Files of at least
+	 * {@link #getMappingThreshold()} bytes are memory mapped, smaller ones are
+	 * read into the pooled buffer of the current thread. The language of the
+	 * file is chosen by its extension, see {@link Languages#forFileName(String)}.
+	 * 
+	 * @param file
+	 * @return The statistics of <tt>file</tt>.
+	 * @throws IOException
+	 */
+	private LOCStatistics readFile( File file ) throws IOException
 	{
+		LOCStatistics fileStatistics = new LOCStatistics();
+		Language language = Languages.forFileName( file.getName() );
+		FileInputStream inputStream = null;
+		try
+		{
+			long openStart = System.nanoTime();
+			inputStream = new FileInputStream( file );
+			metrics.addTime( ScanMetrics.OPEN, System.nanoTime() - openStart );
+			metrics.fileOpened();
 
-		//Initialize the logger
-		logger.addHandler( new ConsoleHandler() );
+			FileChannel channel = inputStream.getChannel();
+			long size = channel.size();
+			boolean mapped = size >= mappingThreshold;
+			boolean isSource;
+			ContentKey contentKey = null;
+			if ( deduplicate )
+			{
+				// Hash the contents first, and classify them only if no
+				// file with the same contents has been classified yet
+				int length = 0;
+				if ( mapped || size >= MAPPING_WINDOW )
+				{
+					long hashStart = System.nanoTime();
+					contentKey = new ContentKey( hashMapped( channel, size ), size, language );
+					metrics.addTime( ScanMetrics.DETECT, System.nanoTime() - hashStart );
+				}
+				else
+				{
+					length = readFully( inputStream, ( int ) size );
+					long hashStart = System.nanoTime();
+					contentKey = new ContentKey( ContentHash.hash( BUFFER.get(), 0, length, 0 ), length, language );
+					metrics.addTime( ScanMetrics.DETECT, System.nanoTime() - hashStart );
+				}
 
-		//Turn off logging by default
-		logger.setLevel( Level.OFF );
+				LOCStatistics duplicate = contentMemo.get( contentKey );
+				if ( duplicate != null )
+				{
+					duplicateFiles.increment();
+					duplicateBytes.add( contentKey.size );
+					return new LOCStatistics().add( duplicate );
+				}
 
-		this.ignoreEmptyLines = ignoreEmptyLines;
+				if ( mapped || size >= MAPPING_WINDOW )
+					isSource = countMapped( channel, size, fileStatistics, language );
+				else
+					isSource = countContent( length, fileStatistics, language );
+			}
+			else if ( mapped )
+				isSource = countMapped( channel, size, fileStatistics, language );
+			else
+				isSource = countBuffered( inputStream, fileStatistics, language );
 
-		initializeFileNamesToBeMasked( inclFilesList, exclFilesList );
+			if ( isSource )
+			{
+				if ( Logging.isLoggable( Level.INFO ) )
+				{
+					Logging.log( Level.INFO, "Closing File: " + file.getAbsolutePath() );
+				}
+				fileStatistics.noOfSourceFiles++;
+			}
+			else
+				fileStatistics.noOfNonSourceFiles++;
+			metrics.addLines( fileStatistics.linesOfCode );
 
-		logger.log( Level.INFO, "Getting file list..." );
-		if ( scanRecursive )
-		{
-			fileList = getFileListRecursive( new File( fileLocation ), new ArrayList<File>() );
+			if ( contentKey != null )
+			{
+				contentMemo.putIfAbsent( contentKey, fileStatistics );
+			}
 		}
-		else
+		catch ( FileNotFoundException e )
 		{
-			fileList = getFileListNonRecursive( new File( fileLocation ) );
+			e.printStackTrace();
+			throw e;
 		}
-
-		for ( Iterator<File> it = fileList.iterator(); it.hasNext(); )
+		finally
 		{
-			File file = it.next();
-			for ( String mask : fileNameSetToBeExcluded )
+			if ( inputStream != null )
 			{
-				mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-				if ( file.getName().matches( mask ) )
-					it.remove();
+				inputStream.close();
+				metrics.fileClosed();
 			}
 		}
+		return fileStatistics;
+	}
+
+	/**
+	 * @return The statistics of a file with the extension of a binary format,
+	 *         which is not even opened.
+	 */
+	private static LOCStatistics binaryFile()
+	{
+		LOCStatistics binary = new LOCStatistics();
+		binary.noOfNonSourceFiles++;
+		return binary;
 	}
 
-	private void initializeFileNamesToBeMasked( String inclFilesList, String exclFilesList )
+	/**
+	 * Streams the entries of an archive into the classifier. Entries whose
+	 * names do not pass the masks are skipped.
+	 * 
+	 * @param file
+	 * @return The statistics of all entries counted.
+	 * @throws IOException
+	 */
+	private LOCStatistics countArchive( File file ) throws IOException
 	{
-		fileNameSetToBeIncluded = new HashSet<String>();
-		if ( !inclFilesList.isEmpty() )
+		final LOCStatistics archiveStatistics = new LOCStatistics();
+		long openStart = System.nanoTime();
+		InputStream inputStream = new FileInputStream( file );
+		metrics.addTime( ScanMetrics.OPEN, System.nanoTime() - openStart );
+		metrics.fileOpened();
+		try
 		{
-			String[] masksList = inclFilesList.split( Constants.SEMICOLON );
-			for ( String mask : masksList )
-				fileNameSetToBeIncluded.add( mask.trim() );
+			new ArchiveWalker().walk( file.getName(), new BufferedInputStream( inputStream, ARCHIVE_BUFFER_SIZE ), new ArchiveWalker.EntryHandler()
+			{
+				public boolean handle( String name, long size, InputStream in ) throws IOException
+				{
+					String entryName = name.substring( name.lastIndexOf( '/' ) + 1 );
+					if ( isIncluded( entryName ) && !isExcluded( entryName ) )
+					{
+						archiveStatistics.add( countEntry( entryName, size, in ) );
+					}
+					return true;
+				}
+			} );
 		}
-		fileNameSetToBeExcluded = new HashSet<String>();
-		if ( !exclFilesList.isEmpty() )
+		finally
 		{
-			String[] masksList = exclFilesList.split( Constants.SEMICOLON );
-			for ( String mask : masksList )
-				fileNameSetToBeExcluded.add( mask.trim() );
+			inputStream.close();
+			metrics.fileClosed();
 		}
-	}
-
-	public int getLoc()
-	{
-		return this.linesOfCode;
-	}
-
-	public int getEmptyLines()
-	{
-		return this.emptyLines;
+		if ( Logging.isLoggable( Level.INFO ) )
+		{
+			Logging.log( Level.INFO, "Closing Archive: " + file.getAbsolutePath() );
+		}
+		return archiveStatistics;
 	}
 
 	/**
-	 * Scans the list of files obtained in
-	 * {@link #LOCCount(String, boolean, boolean)} to calculate lines of code
-	 * and white space counts. Binary files are ignored.
+	 * Counts a single entry of an archive like {@link #readFile(File)} counts
+	 * a file, through the pooled buffer of the current thread.
 	 * 
+	 * @param name
+	 *            The name of the entry, which tells its language.
+	 * @param size
+	 *            The size of the entry, <code>-1</code> if not known.
+	 * @param in
+	 * @return The statistics of the entry.
 	 * @throws IOException
 	 */
-	public void process() throws IOException
+	private LOCStatistics countEntry( String name, long size, InputStream in ) throws IOException
 	{
-		logger.log( Level.INFO, "Calculating loc count..." );
-
-		if ( listener != null )
+		if ( IOUtil.isBinaryFileName( name ) )
 		{
-			listener.setMaxSize( fileList.size() );
+			return binaryFile();
 		}
 
-		Iterator<File> it = fileList.iterator();
-
-		int count = 0;
-
-		while ( it.hasNext() )
+		LOCStatistics entryStatistics = new LOCStatistics();
+		Language language = Languages.forFileName( name );
+		boolean isSource;
+		ContentKey contentKey = null;
+		if ( deduplicate )
 		{
-
-			if ( listener != null )
-			{
-				count++;
-				listener.setCount( count );
-			}
-
-			File file = it.next();
-			BufferedReader reader = null;
-			try
+			int length = readFully( in, ( int ) Math.max( 0, Math.min( size, MAPPING_WINDOW ) ) );
+			if ( length < MAPPING_WINDOW )
 			{
+				long hashStart = System.nanoTime();
+				contentKey = new ContentKey( ContentHash.hash( BUFFER.get(), 0, length, 0 ), length, language );
+				metrics.addTime( ScanMetrics.DETECT, System.nanoTime() - hashStart );
 
-				FileInputStream fileInputStream = new FileInputStream( file );
-				BufferedInputStream markedStream = IOUtil.getMarkedStream( fileInputStream );
-
-				String encoding = IOUtil.detectEncoding( markedStream );
-				// If an encoding is detected, this is a text stream
-				if ( encoding == null )
+				LOCStatistics duplicate = contentMemo.get( contentKey );
+				if ( duplicate != null )
 				{
-					markedStream.reset();
-					String line = null;
-					reader = new BufferedReader( new InputStreamReader( markedStream ) );
-
-					while ( ( line = reader.readLine() ) != null )
-					{
-						line = line.trim();
-						updateLocStatistics( line );
-						linesOfCode++;
-					}
-					logger.log( Level.INFO, "Closing File: " + file.getAbsolutePath() );
-					reader.close();
-					noOfSourceFiles++;
+					duplicateFiles.increment();
+					duplicateBytes.add( contentKey.size );
+					return new LOCStatistics().add( duplicate );
 				}
-				else
-					noOfNonSourceFiles++;
+				isSource = countContent( length, entryStatistics, language );
 			}
-			catch ( FileNotFoundException e )
+			else
 			{
-				e.printStackTrace();
-				throw e;
+				// Too large to hold at once, so the entry is counted in
+				// windows and not compared with others
+				isSource = countBuffered( in, length, entryStatistics, language );
 			}
 		}
+		else
+			isSource = countBuffered( in, entryStatistics, language );
+
+		if ( isSource )
+			entryStatistics.noOfSourceFiles++;
+		else
+			entryStatistics.noOfNonSourceFiles++;
+		metrics.addLines( entryStatistics.linesOfCode );
+
+		if ( contentKey != null )
+		{
+			contentMemo.putIfAbsent( contentKey, entryStatistics );
+		}
+		return entryStatistics;
+	}
 
-		logger.log( Level.INFO, "Done." );
+	/**
+	 * Reads the stream through the pooled buffer of the current thread.
+	 * 
+	 * @return <code>false</code> if the stream is not a source file.
+	 */
+	private boolean countBuffered( InputStream inputStream, LOCStatistics fileStatistics, Language language ) throws IOException
+	{
+		return countBuffered( inputStream, 0, fileStatistics, language );
 	}
 
-	private void updateLocStatistics( String line )
+	/**
+	 * Same as {@link #countBuffered(InputStream, LOCStatistics, Language)},
+	 * but the pooled buffer already holds the first <tt>filled</tt> bytes of
+	 * the stream.
+	 */
+	private boolean countBuffered( InputStream inputStream, int filled, LOCStatistics fileStatistics, Language language ) throws IOException
 	{
-		if ( ignoreEmptyLines && line.length() == 0 )
+		ByteBuffer buffer = BUFFER.get();
+		byte[] bytes = buffer.array();
+		int limit = filled;
+		boolean endOfInput = false;
+
+		// Fill at least the bytes needed for telling text from binary
+		long start = System.nanoTime();
+		while ( limit < IOUtil.BINARY_SAMPLE_SIZE && !endOfInput )
 		{
-			emptyLines++;
-			return;
+			int read = inputStream.read( bytes, limit, bytes.length - limit );
+			if ( read < 0 )
+				endOfInput = true;
+			else
+				limit += read;
+		}
+		metrics.addBytes( limit - filled );
+		long end = System.nanoTime();
+		metrics.addTime( ScanMetrics.READ, end - start );
+
+		start = end;
+		int from = LineClassifier.textStart( bytes, limit );
+		end = System.nanoTime();
+		metrics.addTime( ScanMetrics.DETECT, end - start );
+		if ( from < 0 )
+		{
+			return false;
 		}
 
-		if ( isMultiLineCommentStarted )
+		LineClassifier classifier = new LineClassifier( fileStatistics, ignoreEmptyLines, language, WideEncoding.detect( bytes, limit ) );
+		while ( true )
 		{
-			if ( line.endsWith( Constants.MULTI_LINE_COMMENT_END ) )
+			start = end;
+			int consumed = classifier.classify( buffer, from, limit, endOfInput );
+			from = 0;
+			end = System.nanoTime();
+			metrics.addTime( ScanMetrics.CLASSIFY, end - start );
+			if ( endOfInput )
 			{
-				commentedLines++;
-				isMultiLineCommentStarted = false;
-				return;
+				return true;
 			}
-			else if ( line.contains( Constants.MULTI_LINE_COMMENT_END ) )
+
+			// Keep the incomplete last line and read behind it. If it fills
+			// the whole buffer, the buffer has to grow. A buffer larger than
+			// a window is only kept for this stream.
+			limit -= consumed;
+			if ( limit == bytes.length )
 			{
-				effectiveLinesOfCode++;
-				commentedLines++;
-				isMultiLineCommentStarted = false;
-				return;
+				buffer = ByteBuffer.wrap( Arrays.copyOf( bytes, bytes.length * 2 ) );
+				bytes = buffer.array();
+				if ( bytes.length <= MAPPING_WINDOW )
+				{
+					BUFFER.set( buffer );
+				}
 			}
-			return;
-		}
-
-		switch( line )
-		{
-		case Constants.OPENING_BRACE:
-		case Constants.CLOSING_BRACE:
-		case Constants.SEMICOLON:
-		{
-			if ( isMultiLineStatementStarted )
+			else
 			{
-				effectiveLinesOfCode++;
-				isMultiLineStatementStarted = false;
+				System.arraycopy( bytes, consumed, bytes, 0, limit );
 			}
+
+			start = end;
+			int read = inputStream.read( bytes, limit, bytes.length - limit );
+			if ( read < 0 )
+				endOfInput = true;
 			else
-				ineffectiveLinesOfCode++;
-			return;
-		}
+			{
+				limit += read;
+				metrics.addBytes( read );
+			}
+			end = System.nanoTime();
+			metrics.addTime( ScanMetrics.READ, end - start );
 		}
+	}
 
-		if ( line.startsWith( Constants.IMPORT_STMT ) )
+	/**
+	 * Reads the stream into the pooled buffer of the current thread, at most
+	 * {@link #MAPPING_WINDOW} bytes of it.
+	 * 
+	 * @param inputStream
+	 * @param size
+	 *            The expected number of bytes, at most {@link #MAPPING_WINDOW}.
+	 * @return The number of bytes read. If it is {@link #MAPPING_WINDOW}, the
+	 *         stream may not be at its end yet.
+	 */
+	private int readFully( InputStream inputStream, int size ) throws IOException
+	{
+		long start = System.nanoTime();
+		ByteBuffer buffer = BUFFER.get();
+		byte[] bytes = buffer.array();
+		int length = 0;
+		while ( length < MAPPING_WINDOW )
 		{
-			importStatements++;
-			return;
+			// Leave room for one more byte to notice the end of the stream
+			if ( bytes.length <= Math.max( length, size ) && bytes.length < MAPPING_WINDOW )
+			{
+				long capacity = Math.min( Math.max( bytes.length * 2L, size + 1L ), MAPPING_WINDOW );
+				buffer = ByteBuffer.wrap( Arrays.copyOf( bytes, ( int ) capacity ) );
+				bytes = buffer.array();
+				BUFFER.set( buffer );
+			}
+			int read = inputStream.read( bytes, length, bytes.length - length );
+			if ( read < 0 )
+			{
+				break;
+			}
+			length += read;
 		}
+		metrics.addBytes( length );
+		metrics.addTime( ScanMetrics.READ, System.nanoTime() - start );
+		return length;
+	}
+
+	/**
+	 * Classifies the bytes that {@link #readFully(InputStream, int)} has read
+	 * into the pooled buffer.
+	 * 
+	 * @return <code>false</code> if the contents are not a source file.
+	 */
+	private boolean countContent( int length, LOCStatistics fileStatistics, Language language )
+	{
+		long start = System.nanoTime();
+		boolean isSource = LineClassifier.classifyContents( BUFFER.get(), length, fileStatistics, ignoreEmptyLines, language );
+		metrics.addTime( ScanMetrics.CLASSIFY, System.nanoTime() - start );
+		return isSource;
+	}
 
-		if ( line.startsWith( Constants.PACKAGE_STMT ) )
+	/**
+	 * Hashes the file in windows of {@link #MAPPING_WINDOW} bytes.
+	 */
+	private long hashMapped( FileChannel channel, long size ) throws IOException
+	{
+		long hash = 0;
+		for ( long position = 0; position < size; position += MAPPING_WINDOW )
 		{
-			packageStatements++;
-			return;
+			int length = ( int ) Math.min( size - position, MAPPING_WINDOW );
+			hash = ContentHash.hash( channel.map( FileChannel.MapMode.READ_ONLY, position, length ), 0, length, hash );
 		}
+		return hash;
+	}
+
+	/**
+	 * Maps the file in windows of {@link #MAPPING_WINDOW} bytes and classifies
+	 * the mapped bytes in place. A window starts behind the last complete line
+	 * of the previous one, and is widened when a single line does not fit.
+	 * 
+	 * @return <code>false</code> if the file is not a source file.
+	 */
+	private boolean countMapped( FileChannel channel, long size, LOCStatistics fileStatistics, Language language ) throws IOException
+	{
+		long start = System.nanoTime();
+		byte[] mark = BUFFER.get().array();
+		int count = ( int ) Math.min( IOUtil.BINARY_SAMPLE_SIZE, size );
+		MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, Math.min( size, MAPPING_WINDOW ) );
+		mapped.get( mark, 0, count );
+		metrics.addBytes( size );
 
-		if ( line.startsWith( Constants.SINGLE_LINE_COMMENT ) )
+		int from = LineClassifier.textStart( mark, count );
+		metrics.addTime( ScanMetrics.DETECT, System.nanoTime() - start );
+		if ( from < 0 )
 		{
-			commentedLines++;
-			return;
+			return false;
 		}
-		else if ( line.contains( Constants.SINGLE_LINE_COMMENT ) )
+
+		LineClassifier classifier = new LineClassifier( fileStatistics, ignoreEmptyLines, language, WideEncoding.detect( mark, count ) );
+		long position = 0;
+		long window = MAPPING_WINDOW;
+		while ( true )
 		{
-			commentedLines++;
-			effectiveLinesOfCode++;
-			return;
+			int length = ( int ) Math.min( size - position, window );
+			boolean endOfInput = position + length == size;
+			start = System.nanoTime();
+			int consumed = classifier.classify( mapped, from, length, endOfInput );
+			from = 0;
+			metrics.addTime( ScanMetrics.CLASSIFY, System.nanoTime() - start );
+			if ( endOfInput )
+			{
+				return true;
+			}
+
+			if ( consumed == 0 )
+			{
+				window = Math.min( window * 2, Integer.MAX_VALUE );
+			}
+			position += consumed;
+			mapped = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( size - position, window ) );
 		}
+	}
+
+	/**
+	 * Identifies file contents by their hash and size, and the language they
+	 * are classified with.
+	 */
+	private static final class ContentKey
+	{
+		final long hash;
+		final long size;
+		final Language language;
 
-		if ( line.startsWith( Constants.MULTI_LINE_COMMENT_START ) )
+		ContentKey( long hash, long size, Language language )
 		{
-			commentedLines++;
-			isMultiLineCommentStarted = true;
-			return;
+			this.hash = hash;
+			this.size = size;
+			this.language = language;
 		}
-		else if ( line.contains( Constants.MULTI_LINE_COMMENT_START ) )
+
+		@Override
+		public boolean equals( Object obj )
 		{
-			effectiveLinesOfCode++;
-			commentedLines++;
-			isMultiLineCommentStarted = true;
-			return;
+			if ( !( obj instanceof ContentKey ) )
+			{
+				return false;
+			}
+			ContentKey other = ( ContentKey ) obj;
+			return hash == other.hash && size == other.size && language == other.language;
 		}
 
-		if ( line.endsWith( Constants.MULTI_LINE_COMMENT_END ) )
+		@Override
+		public int hashCode()
 		{
-			commentedLines++;
-			isMultiLineCommentStarted = false;
-			return;
+			return ( int ) ( hash ^ ( hash >>> 32 ) );
 		}
-		else if ( line.contains( Constants.MULTI_LINE_COMMENT_END ) )
+	}
+
+	/**
+	 * Splits a range of the file list until it is small enough to be counted
+	 * on one thread, then merges the statistics of both halves.
+	 */
+	@SuppressWarnings( "serial" )
+	private class CountTask extends RecursiveTask<LOCStatistics>
+	{
+		private final List<File> files;
+		private final int from;
+		private final int to;
+		private final AtomicInteger count;
+
+		CountTask( List<File> files, int from, int to, AtomicInteger count )
 		{
-			effectiveLinesOfCode++;
-			commentedLines++;
-			isMultiLineCommentStarted = false;
-			return;
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.count = count;
 		}
 
-		if ( !line.contains( Constants.SEMICOLON ) )
+		@Override
+		protected LOCStatistics compute()
 		{
-			isMultiLineStatementStarted = true;
-			return;
+			int threshold = Math.max( 1, files.size() / ( parallelism * 8 ) );
+			if ( to - from > threshold )
+			{
+				int middle = ( from + to ) >>> 1;
+				CountTask left = new CountTask( files, from, middle, count );
+				left.fork();
+				LOCStatistics right = new CountTask( files, middle, to, count ).compute();
+				return left.join().add( right );
+			}
+
+			LOCStatistics result = new LOCStatistics();
+			for ( int i = from; i < to; i++ )
+			{
+				try
+				{
+					result.add( countFile( files.get( i ) ) );
+				}
+				catch ( IOException e )
+				{
+					throw new UncheckedIOException( e );
+				}
+				if ( listener != null )
+				{
+					listener.setCount( count.incrementAndGet() );
+				}
+			}
+			return result;
 		}
-		effectiveLinesOfCode++;
 	}
 
 	/**
@@ -303,66 +1444,28 @@ public class LOCCount
 	 * @param fileList
 	 * @return A list of <code>File</code> objects.
 	 */
-	public List<File> getFileListRecursive( File file, List<File> fileList )
+	public List<File> getFileListRecursive( File file, final List<File> fileList )
 	{
-		// Recursion could have been used for getting file list, but it would
-		// mean a long stack of function calls for a deep directory tree
-		List<File> dirList = new ArrayList<File>();
-
-		if ( file.isDirectory() )
-		{
-			dirList.add( file );
-		}
-		else
+		if ( !file.isDirectory() )
 		{
 			fileList.add( file );
+			return fileList;
 		}
 
-		while ( !dirList.isEmpty() )
+		// The walker visits directories iteratively, so a deep directory tree
+		// does not mean a long stack of function calls
+		newWalker( true ).walk( file, new FileWalker.FileHandler()
 		{
-
-			// Use a separate list to hold processed/new directories as dirList
-			// cannot be modified while it is being read.
-			List<File> rmvList = new ArrayList<File>();
-			List<File> addList = new ArrayList<File>();
-
-			for ( File file1 : dirList )
+			public boolean handle( File file2, BasicFileAttributes attributes )
 			{
-				File[] files = file1.listFiles();
-				for ( File file2 : files )
+				String name = file2.getName();
+				if ( isIncluded( name ) && !isExcluded( name ) )
 				{
-					if ( file2.isDirectory() )
-					{
-						addList.add( file2 );
-					}
-					else
-					{
-						for ( String mask : fileNameSetToBeIncluded )
-						{
-							mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-							if ( file2.getName().matches( mask ) )
-								fileList.add( file2 );
-						}
-						for ( String mask : fileNameSetToBeExcluded )
-						{
-							mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-							if ( file2.getName().matches( mask ) )
-								fileList.remove( file2 );
-						}
-					}
+					fileList.add( file2 );
 				}
-				rmvList.add( file1 );
-			}
-
-			for ( File file1 : rmvList )
-			{
-				dirList.remove( file1 );
-			}
-			for ( File file1 : addList )
-			{
-				dirList.add( file1 );
+				return true;
 			}
-		}
+		} );
 
 		return fileList;
 	}
@@ -377,44 +1480,27 @@ public class LOCCount
 	 */
 	public List<File> getFileListNonRecursive( File file )
 	{
-		List<File> fileList = new ArrayList<File>();
+		final List<File> fileList = new ArrayList<File>();
 		if ( file.isDirectory() )
 		{
-			File[] files = file.listFiles();
-			for ( int i = 0; i < files.length; i++ )
+			newWalker( false ).walk( file, new FileWalker.FileHandler()
 			{
-				File file2 = files[i];
-				if ( file2.isFile() )
+				public boolean handle( File file2, BasicFileAttributes attributes )
 				{
-					for ( String mask : fileNameSetToBeIncluded )
-					{
-						mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-						if ( file2.getName().matches( mask ) )
-							fileList.add( file2 );
-					}
-					for ( String mask : fileNameSetToBeExcluded )
+					if ( attributes.isRegularFile() )
 					{
-						mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-						if ( file2.getName().matches( mask ) )
-							fileList.remove( file2 );
+						fileList.add( file2 );
 					}
-					fileList.add( file2 );
+					return true;
 				}
-			}
+			} );
 		}
 		else
 		{
-			for ( String mask : fileNameSetToBeIncluded )
-			{
-				mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-				if ( file.getName().matches( mask ) )
-					fileList.add( file );
-			}
-			for ( String mask : fileNameSetToBeExcluded )
+			String name = file.getName();
+			if ( isIncluded( name ) && !isExcluded( name ) )
 			{
-				mask = mask.replaceAll( Constants.ASTERISK, Constants.WILD_CHARS );
-				if ( file.getName().matches( mask ) )
-					fileList.remove( file );
+				fileList.add( file );
 			}
 		}
 
@@ -422,74 +1508,130 @@ public class LOCCount
 	}
 
 	/**
-	 * @return A list of <code>File</code> objects.
+	 * @return A walker with the settings of this instance.
 	 */
-	public List<File> getFileList()
+	FileWalker newWalker( boolean recursive )
 	{
-		return fileList;
+		FileWalker walker = new FileWalker( recursive );
+		walker.setFollowLinks( followLinks );
+		if ( useIgnoreFiles )
+		{
+			walker.setIgnoreFiles( IgnoreRules.IGNORE_FILES );
+		}
+		return walker;
+	}
+
+	boolean isIncluded( String fileName )
+	{
+		return inclFilesMask.matches( fileName );
+	}
+
+	boolean isExcluded( String fileName )
+	{
+		return exclFilesMask.matches( fileName );
 	}
 
 	/**
-	 * Returns the results set in {@link #process()} as a <code>List</code> of
-	 * <code>String</code>s.
+	 * @return <code>true</code> if a file of this name is counted in a
+	 *         recursive scan: it matches an include mask, or it is an archive
+	 *         and {@link #isScanArchives()} is set. The exclude masks are not
+	 *         applied.
+	 */
+	boolean isCandidate( String fileName )
+	{
+		return isIncluded( fileName ) || scanArchives && ArchiveWalker.isArchive( fileName );
+	}
+
+	/**
+	 * Hands every file that has to be counted to <tt>handler</tt>. Files are
+	 * filtered the same way as by {@link #getFileListRecursive(File, List)} or
+	 * {@link #getFileListNonRecursive(File)}, and files matching an exclude
+	 * mask are always left out. Archives are handed over whatever the include
+	 * masks say if {@link #isScanArchives()} is set. If the file location is
+	 * not a directory, the attributes passed to <tt>handler</tt> are
+	 * <code>null</code>.
 	 * 
-	 * @return A list of <code>String</code> objects.
+	 * @param handler
 	 */
-	public List<String> getMessages()
+	private void findFiles( final FileWalker.FileHandler handler )
 	{
-		List<String> messages = new ArrayList<String>();
-		if ( noOfSourceFiles == 0 )
+		File root = new File( fileLocation );
+		if ( !root.isDirectory() )
 		{
-			messages.add( "No source files found." );
-			return messages;
+			String name = root.getName();
+			if ( ( scanRecursive || isCandidate( name ) ) && !isExcluded( name ) )
+			{
+				metrics.fileFound();
+				handler.handle( root, null );
+			}
+			return;
 		}
-		messages.add( "No. of source files : " + noOfSourceFiles );
-		messages.add( "No. of non-source files : " + noOfNonSourceFiles );
-		if ( ignoreEmptyLines )
+
+		newWalker( scanRecursive ).walk( root, new FileWalker.FileHandler()
 		{
-			messages.add( "Total no. of non empty lines : " + linesOfCode );
-			messages.add( "Empty Lines : " + emptyLines );
-		}
-		else
+			public boolean handle( File file, BasicFileAttributes attributes )
+			{
+				String name = file.getName();
+				boolean candidate = scanRecursive ? isCandidate( name ) : attributes.isRegularFile();
+				if ( !candidate || isExcluded( name ) )
+				{
+					return true;
+				}
+				metrics.fileFound();
+				return handler.handle( file, attributes );
+			}
+		} );
+	}
+
+	/**
+	 * Returns the files to be counted, forming the list on the first call.
+	 * 
+	 * @return A list of <code>File</code> objects.
+	 */
+	public List<File> getFileList()
+	{
+		if ( fileList == null )
 		{
-			messages.add( "Total no. of lines : " + linesOfCode );
+			Logging.log( Level.INFO, "Getting file list..." );
+			long start = System.nanoTime();
+			fileList = findFileList();
+			metrics.addTime( ScanMetrics.WALK, System.nanoTime() - start );
 		}
-		messages.add( "Total effective lines of code : " + effectiveLinesOfCode );
-		messages.add( "Total ineffective lines of code : " + ineffectiveLinesOfCode );
-		messages.add( "Total package statements : " + packageStatements );
-		messages.add( "Total import statements : " + importStatements );
-		messages.add( "Total commented lines of code : " + commentedLines );
-
-		return messages;
+		return fileList;
 	}
 
-	public void setLogLevel( Level level )
+	/**
+	 * Walks the file location again and returns the files to be counted.
+	 * 
+	 * @return A new list of <code>File</code> objects.
+	 */
+	List<File> findFileList()
 	{
-		logger.setLevel( level );
+		final List<File> files = new ArrayList<File>();
+		findFiles( new FileWalker.FileHandler()
+		{
+			public boolean handle( File file, BasicFileAttributes attributes )
+			{
+				return files.add( file );
+			}
+		} );
+		return files;
 	}
 
 	/**
-	 * Main method.
+	 * Returns the results set in {@link #process()} as a <code>List</code> of
+	 * <code>String</code>s.
 	 * 
-	 * @param args
+	 * @return A list of <code>String</code> objects.
 	 */
-	public static void main( String[] args )
+	public List<String> getMessages()
 	{
+		return getResult().getMessages();
+	}
 
-		try
-		{
-			LOCCount counter = new LOCCount( "/home/varun/Programming/workspace-jsf/loccount/src", true, true, "*.*", "*.*" );
-
-			counter.setLogLevel( Level.INFO );
-			counter.process();
-			System.out.println( "No. of files : " + counter.getFileList().size() );
-			System.out.println( "Total no. of lines : " + counter.getLoc() );
-			System.out.println( "Empty Lines   : " + counter.getEmptyLines() );
-		}
-		catch ( Exception e )
-		{
-			e.printStackTrace();
-		}
+	public void setLogLevel( Level level )
+	{
+		Logging.setLevel( level );
 	}
 
 	public Listener getListener()
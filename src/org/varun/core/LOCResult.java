@@ -0,0 +1,92 @@
+package org.varun.core;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The outcome of one {@link LOCCount#scan()}. It does not change after the
+ * scan has returned it, so it can be handed to other threads freely; a later
+ * scan with the same {@link LOCCount} returns a new instance.
+ *
+ * @author varun
+ */
+public final class LOCResult
+{
+	private final File fileLocation;
+	private final boolean ignoreEmptyLines;
+	private final boolean deduplicate;
+	private final LOCStatistics statistics;
+	private final long duplicateFiles;
+	private final long duplicateBytes;
+	private final ScanMetrics metrics;
+
+	LOCResult( File fileLocation, boolean ignoreEmptyLines, boolean deduplicate, LOCStatistics statistics, long duplicateFiles, long duplicateBytes, ScanMetrics metrics )
+	{
+		this.fileLocation = fileLocation;
+		this.ignoreEmptyLines = ignoreEmptyLines;
+		this.deduplicate = deduplicate;
+		this.statistics = new LOCStatistics().add( statistics );
+		this.duplicateFiles = duplicateFiles;
+		this.duplicateBytes = duplicateBytes;
+		this.metrics = metrics.snapshot();
+	}
+
+	public File getFileLocation()
+	{
+		return fileLocation;
+	}
+
+	/**
+	 * @return A copy of the counters of the scan.
+	 */
+	public LOCStatistics getStatistics()
+	{
+		return new LOCStatistics().add( statistics );
+	}
+
+	public long getLoc()
+	{
+		return statistics.linesOfCode;
+	}
+
+	public long getEmptyLines()
+	{
+		return statistics.emptyLines;
+	}
+
+	/**
+	 * @return The number of files that were not classified because a file
+	 *         with the same contents had been classified before.
+	 */
+	public long getDuplicateFiles()
+	{
+		return duplicateFiles;
+	}
+
+	public long getDuplicateBytes()
+	{
+		return duplicateBytes;
+	}
+
+	/**
+	 * @return A copy of the metrics of the scan. It is no longer updated.
+	 */
+	public ScanMetrics getMetrics()
+	{
+		return metrics.snapshot();
+	}
+
+	/**
+	 * @return The counters as a <code>List</code> of <code>String</code>s.
+	 */
+	public List<String> getMessages()
+	{
+		List<String> messages = statistics.getMessages( ignoreEmptyLines );
+		if ( deduplicate && statistics.noOfSourceFiles != 0 )
+		{
+			messages.add( "Duplicate files : " + duplicateFiles );
+			messages.add( "Duplicate bytes : " + duplicateBytes );
+		}
+		return messages;
+	}
+}
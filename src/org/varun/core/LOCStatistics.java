@@ -0,0 +1,147 @@
+package org.varun.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the line counters gathered while scanning one or more files. Instances
+ * are not thread safe; each worker fills its own instance and the results are
+ * merged with {@link #add(LOCStatistics)}, so no counter is shared between
+ * threads while a scan runs. The counters are 64 bit, as the totals of large
+ * trees exceed the range of an <code>int</code>.
+ *
+ * @author varun
+ */
+public class LOCStatistics
+{
+	long noOfSourceFiles;
+	long noOfNonSourceFiles;
+
+	long linesOfCode;
+	long effectiveLinesOfCode;
+	long ineffectiveLinesOfCode;
+	long importStatements;
+	long packageStatements;
+	long commentedLines;
+	long emptyLines;
+
+	/**
+	 * Adds the counters of <tt>other</tt> to this instance.
+	 *
+	 * @param other
+	 * @return This instance.
+	 */
+	public LOCStatistics add( LOCStatistics other )
+	{
+		noOfSourceFiles += other.noOfSourceFiles;
+		noOfNonSourceFiles += other.noOfNonSourceFiles;
+		linesOfCode += other.linesOfCode;
+		effectiveLinesOfCode += other.effectiveLinesOfCode;
+		ineffectiveLinesOfCode += other.ineffectiveLinesOfCode;
+		importStatements += other.importStatements;
+		packageStatements += other.packageStatements;
+		commentedLines += other.commentedLines;
+		emptyLines += other.emptyLines;
+		return this;
+	}
+
+	/**
+	 * Subtracts the counters of <tt>other</tt> from this instance.
+	 *
+	 * @param other
+	 * @return This instance.
+	 */
+	LOCStatistics subtract( LOCStatistics other )
+	{
+		noOfSourceFiles -= other.noOfSourceFiles;
+		noOfNonSourceFiles -= other.noOfNonSourceFiles;
+		linesOfCode -= other.linesOfCode;
+		effectiveLinesOfCode -= other.effectiveLinesOfCode;
+		ineffectiveLinesOfCode -= other.ineffectiveLinesOfCode;
+		importStatements -= other.importStatements;
+		packageStatements -= other.packageStatements;
+		commentedLines -= other.commentedLines;
+		emptyLines -= other.emptyLines;
+		return this;
+	}
+
+	public long getNoOfSourceFiles()
+	{
+		return noOfSourceFiles;
+	}
+
+	public long getNoOfNonSourceFiles()
+	{
+		return noOfNonSourceFiles;
+	}
+
+	public long getLinesOfCode()
+	{
+		return linesOfCode;
+	}
+
+	public long getEffectiveLinesOfCode()
+	{
+		return effectiveLinesOfCode;
+	}
+
+	public long getIneffectiveLinesOfCode()
+	{
+		return ineffectiveLinesOfCode;
+	}
+
+	public long getImportStatements()
+	{
+		return importStatements;
+	}
+
+	public long getPackageStatements()
+	{
+		return packageStatements;
+	}
+
+	public long getCommentedLines()
+	{
+		return commentedLines;
+	}
+
+	public long getEmptyLines()
+	{
+		return emptyLines;
+	}
+
+	/**
+	 * Returns the counters as a <code>List</code> of <code>String</code>s.
+	 * 
+	 * @param ignoreEmptyLines
+	 *            Whether empty lines were counted separately.
+	 * @return A list of <code>String</code> objects.
+	 */
+	public List<String> getMessages( boolean ignoreEmptyLines )
+	{
+		List<String> messages = new ArrayList<String>();
+		if ( noOfSourceFiles == 0 )
+		{
+			messages.add( "No source files found." );
+			return messages;
+		}
+		messages.add( "No. of source files : " + noOfSourceFiles );
+		messages.add( "No. of non-source files : " + noOfNonSourceFiles );
+		if ( ignoreEmptyLines )
+		{
+			messages.add( "Total no. of non empty lines : " + linesOfCode );
+			messages.add( "Empty Lines : " + emptyLines );
+		}
+		else
+		{
+			messages.add( "Total no. of lines : " + linesOfCode );
+		}
+		messages.add( "Total effective lines of code : " + effectiveLinesOfCode );
+		messages.add( "Total ineffective lines of code : " + ineffectiveLinesOfCode );
+		messages.add( "Total package statements : " + packageStatements );
+		messages.add( "Total import statements : " + importStatements );
+		messages.add( "Total commented lines of code : " + commentedLines );
+
+		return messages;
+	}
+}
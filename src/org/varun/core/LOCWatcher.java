@@ -0,0 +1,465 @@
+package org.varun.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+/**
+ * Keeps the totals of a {@link LOCCount} up to date while files change. The
+ * scanned directories are registered with a {@link WatchService}; on every
+ * change only the affected files are counted again, and the new totals are
+ * handed to a {@link ChangeListener}. Directories created while watching are
+ * registered and counted, the files of deleted directories are dropped.
+ * <p>
+ * The directories are walked like in the scan. If ignore files are used,
+ * the rules of every watched directory are kept, so that changed files are
+ * filtered the same way; a changed ignore file leads to a new walk. Links
+ * are followed or skipped like in the scan, and every directory is watched
+ * once, however many links lead to it.
+ *
+ * @author varun
+ */
+public class LOCWatcher implements Closeable
+{
+	/**
+	 * Receives the totals after files have changed. It is called on the
+	 * thread of the watcher.
+	 */
+	public interface ChangeListener
+	{
+		void totalsChanged( LOCStatistics totals );
+	}
+
+
+	private final LOCCount counter;
+	private final Path root;
+	private final boolean rootIsDirectory;
+	private final boolean recursive;
+	private final boolean useIgnoreFiles;
+	private final boolean followLinks;
+
+	private WatchService watchService;
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+	// The ignore rules for the entries of every watched directory, if ignore
+	// files are used
+	private final Map<Path, IgnoreRules> ignoreRules = new HashMap<Path, IgnoreRules>();
+
+	// The keys of the watched directories, see FileWalker, so that no
+	// directory is watched twice
+	private final Set<Object> visited = new HashSet<Object>();
+	private final Map<Path, Object> directoryKeys = new HashMap<Path, Object>();
+
+	// Statistics of every counted file by path, sorted so that the files of a
+	// deleted directory can be found as one range
+	private final TreeMap<String, LOCStatistics> results = new TreeMap<String, LOCStatistics>();
+	private LOCStatistics totals = new LOCStatistics();
+
+	private ChangeListener listener;
+	private Thread thread;
+
+	/**
+	 * @param counter
+	 *            Provides the file location, masks and settings.
+	 */
+	public LOCWatcher( LOCCount counter )
+	{
+		this.counter = counter;
+		// Events report absolute paths, so the root and all results are kept
+		// in that form
+		this.root = counter.getFileLocation().toPath().toAbsolutePath().normalize();
+		this.rootIsDirectory = Files.isDirectory( root );
+		this.recursive = counter.isScanRecursive();
+		this.useIgnoreFiles = counter.isUseIgnoreFiles() && rootIsDirectory;
+		this.followLinks = counter.isFollowLinks();
+	}
+
+	/**
+	 * Counts all files once and starts watching them.
+	 *
+	 * @param listener
+	 * @return The totals of the first count.
+	 * @throws IOException
+	 */
+	public LOCStatistics start( ChangeListener listener ) throws IOException
+	{
+		this.listener = listener;
+		watchService = FileSystems.getDefault().newWatchService();
+
+		// Register before counting, so that no change is missed
+		register( rootIsDirectory ? root : root.getParent(), null );
+		countAll();
+
+		thread = new Thread( new Runnable()
+		{
+			public void run()
+			{
+				watch();
+			}
+		}, "loccount-watcher" );
+		thread.setDaemon( true );
+		thread.start();
+
+		return getTotals();
+	}
+
+	/**
+	 * @return A copy of the current totals.
+	 */
+	public synchronized LOCStatistics getTotals()
+	{
+		return new LOCStatistics().add( totals );
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public void close() throws IOException
+	{
+		if ( watchService != null )
+		{
+			watchService.close();
+		}
+	}
+
+	private void watch()
+	{
+		try
+		{
+			while ( true )
+			{
+				WatchKey key = watchService.take();
+
+				// Handle all pending keys at once, as editors tend to cause
+				// several events for a single save
+				Set<Path> changed = new LinkedHashSet<Path>();
+				boolean overflow = false;
+				while ( key != null )
+				{
+					overflow |= pollEvents( key, changed );
+					key = watchService.poll();
+				}
+
+				// A failure is logged and leaves the other changes and the
+				// later ones to be handled
+				if ( overflow )
+				{
+					try
+					{
+						rewalk();
+					}
+					catch ( IOException e )
+					{
+						Logging.log( Level.WARNING, "Could not count " + root, e );
+					}
+					catch ( RuntimeException e )
+					{
+						Logging.log( Level.WARNING, "Could not count " + root, e );
+					}
+				}
+				else
+				{
+					for ( Path file : changed )
+					{
+						try
+						{
+							recount( file );
+						}
+						catch ( RuntimeException e )
+						{
+							Logging.log( Level.WARNING, "Could not count " + file, e );
+						}
+					}
+				}
+
+				if ( listener != null )
+				{
+					try
+					{
+						listener.totalsChanged( getTotals() );
+					}
+					catch ( RuntimeException e )
+					{
+						Logging.log( Level.WARNING, "Listener failed", e );
+					}
+				}
+			}
+		}
+		catch ( ClosedWatchServiceException e )
+		{
+			// Closed by close()
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Collects the changed files of a key. Created directories are
+	 * registered and their files are added to <tt>changed</tt>.
+	 *
+	 * @return <code>true</code> if events were lost or an ignore file
+	 *         changed, so that all directories have to be walked again.
+	 */
+	private boolean pollEvents( WatchKey key, Set<Path> changed )
+	{
+		Path directory = directories.get( key );
+		boolean overflow = false;
+		for ( WatchEvent<?> event : key.pollEvents() )
+		{
+			if ( event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null )
+			{
+				overflow = true;
+				continue;
+			}
+
+			Path child = directory.resolve( ( Path ) event.context() );
+			if ( event.kind() == StandardWatchEventKinds.ENTRY_DELETE )
+			{
+				// The directory may come back with the same key
+				visited.remove( directoryKeys.remove( child ) );
+			}
+			if ( !followLinks && Files.isSymbolicLink( child ) )
+			{
+				continue;
+			}
+			if ( useIgnoreFiles && Arrays.asList( IgnoreRules.IGNORE_FILES ).contains( child.getFileName().toString() ) )
+			{
+				overflow = true;
+				continue;
+			}
+			if ( event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && Files.isDirectory( child ) )
+			{
+				// Attributes or entries of a directory changed; the entries
+				// report their own events
+				continue;
+			}
+			if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && recursive && rootIsDirectory && Files.isDirectory( child ) )
+			{
+				try
+				{
+					changed.addAll( register( child, ignoreRules.get( directory ) ) );
+				}
+				catch ( IOException e )
+				{
+					Logging.log( Level.WARNING, "Could not watch " + child, e );
+				}
+			}
+			else
+			{
+				changed.add( child );
+			}
+		}
+
+		if ( !key.reset() )
+		{
+			Path removed = directories.remove( key );
+			ignoreRules.remove( removed );
+			visited.remove( directoryKeys.remove( removed ) );
+		}
+		return overflow;
+	}
+
+	/**
+	 * Registers <tt>directory</tt> and, in recursive mode, its
+	 * sub-directories that are not ignored.
+	 *
+	 * @param directory
+	 * @param parentRules
+	 *            The ignore rules of the parent of <tt>directory</tt>,
+	 *            <code>null</code> for the root.
+	 * @return The files found in the registered directories.
+	 */
+	private Set<Path> register( Path directory, IgnoreRules parentRules ) throws IOException
+	{
+		final Set<Path> files = new LinkedHashSet<Path>();
+		if ( !rootIsDirectory )
+		{
+			registerDirectory( directory, null );
+			return files;
+		}
+		if ( !recursive )
+		{
+			registerDirectory( directory, useIgnoreFiles ? IgnoreRules.NONE.enter( directory, null, IgnoreRules.IGNORE_FILES ) : null );
+			return files;
+		}
+
+		try
+		{
+			counter.newWalker( true ).walk( directory.toFile(), new FileWalker.FileHandler()
+			{
+				public boolean handle( File file, BasicFileAttributes attributes )
+				{
+					if ( !attributes.isDirectory() )
+					{
+						files.add( file.toPath() );
+					}
+					return true;
+				}
+			}, parentRules, visited, new FileWalker.DirectoryHandler()
+			{
+				public void enter( Path dir, Object key, IgnoreRules rules ) throws IOException
+				{
+					registerDirectory( dir, rules );
+					directoryKeys.put( dir, key );
+				}
+			} );
+		}
+		catch ( UncheckedIOException e )
+		{
+			throw e.getCause();
+		}
+		return files;
+	}
+
+	private void registerDirectory( Path directory, IgnoreRules rules ) throws IOException
+	{
+		WatchKey key = directory.register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY );
+		directories.put( key, directory );
+		if ( rules != null )
+		{
+			ignoreRules.put( directory, rules );
+		}
+	}
+
+	/**
+	 * Registers all directories again and counts all files from scratch,
+	 * after events were lost or the ignore rules changed.
+	 */
+	private void rewalk() throws IOException
+	{
+		for ( WatchKey key : directories.keySet() )
+		{
+			key.cancel();
+		}
+		directories.clear();
+		ignoreRules.clear();
+		visited.clear();
+		directoryKeys.clear();
+		register( rootIsDirectory ? root : root.getParent(), null );
+		countAll();
+	}
+
+	/**
+	 * Counts all files of the {@link LOCCount} from scratch.
+	 */
+	private void countAll() throws IOException
+	{
+		TreeMap<String, LOCStatistics> counted = new TreeMap<String, LOCStatistics>();
+		LOCStatistics sum = new LOCStatistics();
+		for ( File file : counter.findFileList() )
+		{
+			try
+			{
+				LOCStatistics statistics = counter.countFile( file );
+				counted.put( file.toPath().toAbsolutePath().normalize().toString(), statistics );
+				sum.add( statistics );
+			}
+			catch ( FileNotFoundException e )
+			{
+				// Deleted since it was found
+			}
+		}
+
+		synchronized ( this )
+		{
+			results.clear();
+			results.putAll( counted );
+			totals = sum;
+		}
+	}
+
+	/**
+	 * Counts a created, modified or deleted file or directory again.
+	 */
+	private void recount( Path path )
+	{
+		LOCStatistics statistics = null;
+		if ( Files.exists( path ) && accepts( path ) )
+		{
+			try
+			{
+				statistics = counter.countFile( path.toFile() );
+			}
+			catch ( IOException e )
+			{
+				// Deleted or unreadable, drop it
+			}
+		}
+
+		synchronized ( this )
+		{
+			String key = path.toString();
+			LOCStatistics old = results.remove( key );
+			if ( old != null )
+			{
+				totals.subtract( old );
+			}
+			else if ( !Files.exists( path ) )
+			{
+				// A deleted directory; drop all files below it
+				String prefix = key + File.separator;
+				Iterator<LOCStatistics> it = results.subMap( prefix, prefix + Character.MAX_VALUE ).values().iterator();
+				while ( it.hasNext() )
+				{
+					totals.subtract( it.next() );
+					it.remove();
+				}
+			}
+
+			if ( statistics != null )
+			{
+				results.put( key, statistics );
+				totals.add( statistics );
+			}
+		}
+	}
+
+	/**
+	 * Applies the same filter as {@link LOCCount#getFileList()}.
+	 */
+	private boolean accepts( Path file )
+	{
+		if ( Files.isDirectory( file ) )
+		{
+			return false;
+		}
+		String name = file.getFileName().toString();
+		IgnoreRules rules = ignoreRules.get( file.getParent() );
+		if ( rules != null && rules.isIgnored( name, false ) )
+		{
+			return false;
+		}
+		if ( !rootIsDirectory )
+		{
+			return file.equals( root ) && ( recursive || counter.isCandidate( name ) ) && !counter.isExcluded( name );
+		}
+		if ( !recursive )
+		{
+			return file.getParent().equals( root ) && Files.isRegularFile( file ) && !counter.isExcluded( name );
+		}
+		// Archives are counted by LOCCount.countFile() like in the scan
+		return counter.isCandidate( name ) && !counter.isExcluded( name );
+	}
+}
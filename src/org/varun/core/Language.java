@@ -0,0 +1,361 @@
+package org.varun.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the syntax of a programming language with a few rules: its
+ * comment markers, the statement terminator, the keywords that start import
+ * and package statements, the quotes of string literals, and the lines that
+ * hold no code, such as a lone brace. The rules are compiled once into lookup
+ * tables, see {@link Rules}, which drive the single pass of the
+ * {@link LineClassifier} over a file.
+ * <p>
+ * A language is configured with the chained setters and then registered with
+ * {@link Languages#register(Language)} or supplied by a
+ * {@link LanguageProvider}. It must not be changed after it has been used.
+ * All markers and keywords have to be ASCII.
+ *
+ * @author varun
+ */
+public class Language
+{
+	private final String name;
+	private final List<String> extensions;
+
+	private String[] lineComments = {};
+	private String blockCommentStart;
+	private String blockCommentEnd;
+	private String statementTerminator;
+	private String[] importKeywords = {};
+	private String[] packageKeywords = {};
+	private String[] ineffectiveLines = {};
+	private String stringQuotes = "";
+	private char escapeCharacter = '\\';
+
+	private volatile Rules rules;
+
+	/**
+	 * @param name
+	 * @param extensions
+	 *            The file name extensions of the language, without the dot.
+	 */
+	public Language( String name, String... extensions )
+	{
+		this.name = name;
+		this.extensions = Collections.unmodifiableList( Arrays.asList( extensions ) );
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public List<String> getExtensions()
+	{
+		return extensions;
+	}
+
+	/**
+	 * @param markers
+	 *            Markers that start a comment ending with the line.
+	 * @return This instance.
+	 */
+	public Language setLineComments( String... markers )
+	{
+		this.lineComments = markers;
+		return this;
+	}
+
+	/**
+	 * @param start
+	 * @param end
+	 * @return This instance.
+	 */
+	public Language setBlockComment( String start, String end )
+	{
+		this.blockCommentStart = start;
+		this.blockCommentEnd = end;
+		return this;
+	}
+
+	/**
+	 * @param terminator
+	 *            Ends a statement; a line without it continues on the next
+	 *            line. With <code>null</code> every line is a statement.
+	 * @return This instance.
+	 */
+	public Language setStatementTerminator( String terminator )
+	{
+		this.statementTerminator = terminator;
+		return this;
+	}
+
+	/**
+	 * @param keywords
+	 *            Lines starting with one of them are import statements.
+	 * @return This instance.
+	 */
+	public Language setImportKeywords( String... keywords )
+	{
+		this.importKeywords = keywords;
+		return this;
+	}
+
+	/**
+	 * @param keywords
+	 *            Lines starting with one of them are package statements.
+	 * @return This instance.
+	 */
+	public Language setPackageKeywords( String... keywords )
+	{
+		this.packageKeywords = keywords;
+		return this;
+	}
+
+	/**
+	 * @param lines
+	 *            Lines that consist of nothing but one of these are
+	 *            ineffective, unless they end a multi-line statement.
+	 * @return This instance.
+	 */
+	public Language setIneffectiveLines( String... lines )
+	{
+		this.ineffectiveLines = lines;
+		return this;
+	}
+
+	/**
+	 * @param quotes
+	 *            Every character starts a string or character literal that
+	 *            ends with the same character or with the line. Comment
+	 *            markers and terminators inside literals are not counted.
+	 * @return This instance.
+	 */
+	public Language setStringQuotes( String quotes )
+	{
+		this.stringQuotes = quotes;
+		return this;
+	}
+
+	/**
+	 * @param escape
+	 *            Takes the next character in a literal as it is, so that
+	 *            <tt>"\""</tt> does not end a string. <code>\</code> by
+	 *            default, <code>0</code> for none.
+	 * @return This instance.
+	 */
+	public Language setEscapeCharacter( char escape )
+	{
+		this.escapeCharacter = escape;
+		return this;
+	}
+
+	/**
+	 * @return The compiled rules, created on first use.
+	 */
+	Rules getRules()
+	{
+		Rules compiled = rules;
+		if ( compiled == null )
+		{
+			compiled = new Rules( this );
+			rules = compiled;
+		}
+		return compiled;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+
+	/**
+	 * The rules of a language as byte arrays plus a table of the bytes that
+	 * need a closer look in code: blanks, line breaks, quotes and the first
+	 * bytes of markers. The {@link LineClassifier} looks up every byte of
+	 * code in it once; runs of other bytes are passed over.
+	 */
+	static final class Rules
+	{
+		static final int LINE_COMMENT = 1;
+		static final int BLOCK_COMMENT_START = 2;
+		static final int STATEMENT_TERMINATOR = 3;
+
+		// The kinds of bytes in code; all others are part of a word
+		static final byte BLANK = 1;
+		static final byte LINE_BREAK = 2;
+		static final byte QUOTE = 3;
+		static final byte MARKER = 4;
+		// A statement terminator of one byte that starts no other marker
+		static final byte TERMINATOR = 5;
+
+		// Bits for the first bytes of ineffective lines and keywords, so most
+		// lines are told apart from them by one lookup
+		static final byte INEFFECTIVE_START = 1;
+		static final byte IMPORT_START = 2;
+		static final byte PACKAGE_START = 4;
+
+		final byte[][] markers;
+		final int[] markerKinds;
+		final byte[] blockCommentEnd;
+		final boolean hasStatementTerminator;
+		final int escape;
+		final byte[][] importKeywords;
+		final byte[][] packageKeywords;
+		final byte[][] ineffectiveLines;
+
+		final byte[] byteKinds = new byte[256];
+		final byte[] lineStarts = new byte[256];
+
+		// Bit i is set for every byte that marker i starts with
+		private final int[] firstBytes = new int[256];
+
+		Rules( Language language )
+		{
+			List<byte[]> markerList = new ArrayList<byte[]>();
+			List<Integer> kindList = new ArrayList<Integer>();
+			for ( String marker : language.lineComments )
+			{
+				markerList.add( ascii( marker ) );
+				kindList.add( LINE_COMMENT );
+			}
+			if ( language.blockCommentStart != null )
+			{
+				markerList.add( ascii( language.blockCommentStart ) );
+				kindList.add( BLOCK_COMMENT_START );
+			}
+			if ( language.statementTerminator != null )
+			{
+				markerList.add( ascii( language.statementTerminator ) );
+				kindList.add( STATEMENT_TERMINATOR );
+			}
+			if ( markerList.size() > Integer.SIZE )
+			{
+				throw new IllegalArgumentException( "Too many markers in " + language.name );
+			}
+
+			markers = markerList.toArray( new byte[markerList.size()][] );
+			markerKinds = new int[markers.length];
+			for ( int i = 0; i < markers.length; i++ )
+			{
+				markerKinds[i] = kindList.get( i );
+				firstBytes[markers[i][0] & 0xff] |= 1 << i;
+			}
+			for ( int i = 0; i <= ' '; i++ )
+			{
+				byteKinds[i] = i == '\n' || i == '\r' ? LINE_BREAK : BLANK;
+			}
+			for ( int i = 0; i < markers.length; i++ )
+			{
+				int first = markers[i][0] & 0xff;
+				if ( first <= ' ' )
+				{
+					throw new IllegalArgumentException( "Marker starts with a blank in " + language.name );
+				}
+				boolean single = markers[i].length == 1 && Integer.bitCount( firstBytes[first] ) == 1;
+				byteKinds[first] = single && markerKinds[i] == STATEMENT_TERMINATOR ? TERMINATOR : MARKER;
+			}
+			for ( byte quote : language.stringQuotes.getBytes( StandardCharsets.US_ASCII ) )
+			{
+				if ( byteKinds[quote & 0xff] != 0 )
+				{
+					throw new IllegalArgumentException( "Quote is also a marker in " + language.name );
+				}
+				byteKinds[quote & 0xff] = QUOTE;
+			}
+
+			blockCommentEnd = language.blockCommentEnd != null ? ascii( language.blockCommentEnd ) : null;
+			hasStatementTerminator = language.statementTerminator != null;
+			escape = language.escapeCharacter != 0 ? language.escapeCharacter : -1;
+			importKeywords = ascii( language.importKeywords );
+			packageKeywords = ascii( language.packageKeywords );
+			ineffectiveLines = ascii( language.ineffectiveLines );
+			markStarts( ineffectiveLines, INEFFECTIVE_START );
+			markStarts( importKeywords, IMPORT_START );
+			markStarts( packageKeywords, PACKAGE_START );
+		}
+
+		private void markStarts( byte[][] lines, byte bit )
+		{
+			for ( byte[] line : lines )
+			{
+				lineStarts[line[0] & 0xff] |= bit;
+			}
+		}
+
+		/**
+		 * Finds the longest marker at <tt>offset</tt>.
+		 *
+		 * @return Its kind, or <code>0</code> if no marker starts there.
+		 */
+		int match( byte[] line, int offset, int end )
+		{
+			int candidates = firstBytes[line[offset] & 0xff];
+			int kind = 0;
+			int length = 0;
+			while ( candidates != 0 )
+			{
+				int marker = Integer.numberOfTrailingZeros( candidates );
+				candidates &= candidates - 1;
+				byte[] bytes = markers[marker];
+				if ( bytes.length > length && end - offset >= bytes.length && regionMatches( line, offset, bytes ) )
+				{
+					kind = markerKinds[marker];
+					length = bytes.length;
+				}
+			}
+			return kind;
+		}
+
+		/**
+		 * @return The length of the marker of <tt>kind</tt>.
+		 */
+		int length( int kind )
+		{
+			for ( int i = 0; i < markers.length; i++ )
+			{
+				if ( markerKinds[i] == kind )
+				{
+					return markers[i].length;
+				}
+			}
+			return 0;
+		}
+
+		private static byte[] ascii( String marker )
+		{
+			if ( marker == null || marker.isEmpty() )
+			{
+				throw new IllegalArgumentException( "Empty marker" );
+			}
+			return marker.getBytes( StandardCharsets.US_ASCII );
+		}
+
+		private static byte[][] ascii( String[] markers )
+		{
+			byte[][] bytes = new byte[markers.length][];
+			for ( int i = 0; i < markers.length; i++ )
+			{
+				bytes[i] = ascii( markers[i] );
+			}
+			return bytes;
+		}
+
+		static boolean regionMatches( byte[] line, int offset, byte[] marker )
+		{
+			for ( int i = 0; i < marker.length; i++ )
+			{
+				if ( line[offset + i] != marker[i] )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package org.varun.core;
+
+import java.util.List;
+
+/**
+ * Supplies additional languages. Implementations are found with
+ * {@link java.util.ServiceLoader}, so a jar adds languages by listing its
+ * provider in
+ * <tt>META-INF/services/org.varun.core.LanguageProvider</tt>. A language
+ * for an extension that is already known replaces the built-in one.
+ *
+ * @author varun
+ */
+public interface LanguageProvider
+{
+	/**
+	 * @return The languages of this provider.
+	 */
+	List<Language> getLanguages();
+}
@@ -0,0 +1,122 @@
+package org.varun.core;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of {@link Language}s by file name extension. It starts with
+ * the built-in languages and the ones of every {@link LanguageProvider} on
+ * the class path. Files with an unknown extension are classified with the
+ * rules of {@link #getDefault()}, the Java and C syntax this calculator has
+ * always used.
+ *
+ * @author varun
+ */
+public final class Languages
+{
+	private static final Language DEFAULT = java( "Java", "java" );
+
+	private static final Map<String, Language> byExtension = new ConcurrentHashMap<String, Language>();
+
+	static
+	{
+		register( DEFAULT );
+		register( java( "Kotlin/Scala/Groovy", "kt", "kts", "scala", "groovy" ) );
+		register( new Language( "C/C++", "c", "h", "cpp", "cc", "cxx", "hpp", "hh", "hxx" ) //
+				.setLineComments( Constants.SINGLE_LINE_COMMENT ) //
+				.setBlockComment( Constants.MULTI_LINE_COMMENT_START, Constants.MULTI_LINE_COMMENT_END ) //
+				.setStatementTerminator( Constants.SEMICOLON ) //
+				.setStringQuotes( "\"'" ) //
+				.setImportKeywords( "#include" ) //
+				.setIneffectiveLines( Constants.OPENING_BRACE, Constants.CLOSING_BRACE, Constants.SEMICOLON ) );
+		register( new Language( "C#", "cs" ) //
+				.setLineComments( Constants.SINGLE_LINE_COMMENT ) //
+				.setBlockComment( Constants.MULTI_LINE_COMMENT_START, Constants.MULTI_LINE_COMMENT_END ) //
+				.setStatementTerminator( Constants.SEMICOLON ) //
+				.setStringQuotes( "\"'" ) //
+				.setImportKeywords( "using " ) //
+				.setPackageKeywords( "namespace" ) //
+				.setIneffectiveLines( Constants.OPENING_BRACE, Constants.CLOSING_BRACE, Constants.SEMICOLON ) );
+		register( java( "JavaScript/TypeScript", "js", "mjs", "ts", "tsx", "jsx" ).setStringQuotes( "\"'`" ) );
+		register( new Language( "Python", "py" ) //
+				.setLineComments( "#" ) //
+				.setStringQuotes( "\"'" ) //
+				.setImportKeywords( "import ", "from " ) );
+		register( new Language( "Shell", "sh", "bash", "ksh", "zsh" ) //
+				.setLineComments( "#" ) //
+				.setStringQuotes( "\"'" ) //
+				.setImportKeywords( "source ", ". " ) //
+				.setIneffectiveLines( "fi", "done", "esac", "then", "do", "{", "}" ) );
+		register( new Language( "SQL", "sql" ) //
+				.setLineComments( "--" ) //
+				.setBlockComment( Constants.MULTI_LINE_COMMENT_START, Constants.MULTI_LINE_COMMENT_END ) //
+				.setStatementTerminator( Constants.SEMICOLON ) //
+				.setStringQuotes( "'\"" ) //
+				.setEscapeCharacter( ( char ) 0 ) //
+				.setIneffectiveLines( Constants.SEMICOLON, "(", ")", ");" ) );
+
+		for ( LanguageProvider provider : ServiceLoader.load( LanguageProvider.class ) )
+		{
+			for ( Language language : provider.getLanguages() )
+			{
+				register( language );
+			}
+		}
+	}
+
+	private Languages()
+	{
+	}
+
+	private static Language java( String name, String... extensions )
+	{
+		return new Language( name, extensions ) //
+				.setLineComments( Constants.SINGLE_LINE_COMMENT ) //
+				.setBlockComment( Constants.MULTI_LINE_COMMENT_START, Constants.MULTI_LINE_COMMENT_END ) //
+				.setStatementTerminator( Constants.SEMICOLON ) //
+				.setStringQuotes( "\"'" ) //
+				.setImportKeywords( Constants.IMPORT_STMT ) //
+				.setPackageKeywords( Constants.PACKAGE_STMT ) //
+				.setIneffectiveLines( Constants.OPENING_BRACE, Constants.CLOSING_BRACE, Constants.SEMICOLON );
+	}
+
+	/**
+	 * Registers <tt>language</tt> for all its extensions, replacing any
+	 * language registered for them before.
+	 *
+	 * @param language
+	 */
+	public static void register( Language language )
+	{
+		for ( String extension : language.getExtensions() )
+		{
+			byExtension.put( extension.toLowerCase( Locale.ROOT ), language );
+		}
+	}
+
+	/**
+	 * @return The rules used for files with an unknown extension.
+	 */
+	public static Language getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * @param fileName
+	 * @return The language registered for the extension of
+	 *         <tt>fileName</tt>, or {@link #getDefault()}.
+	 */
+	public static Language forFileName( String fileName )
+	{
+		int dot = fileName.lastIndexOf( '.' );
+		if ( dot < 0 || dot == fileName.length() - 1 )
+		{
+			return DEFAULT;
+		}
+		Language language = byExtension.get( fileName.substring( dot + 1 ).toLowerCase( Locale.ROOT ) );
+		return language != null ? language : DEFAULT;
+	}
+}
@@ -0,0 +1,629 @@
+package org.varun.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Classifies the lines of a single file and updates a {@link LOCStatistics}
+ * instance. The block comment and statement state is kept per classifier, so
+ * a new instance has to be used for every file.
+ * <p>
+ * The contents are read once, left to right, by a small state machine with
+ * the states code, string literal, line comment and block comment. Comment
+ * markers and statement terminators are only recognized in code, so
+ * <tt>"http://"</tt> in a string is not a comment. While a line is read its
+ * first and last non-blank byte and what was seen on it are recorded; when it
+ * ends it is counted from these alone. No objects are created per line. The
+ * syntax comes from a {@link Language}; all markers are ASCII, which makes
+ * this safe for any ASCII compatible encoding such as UTF-8 or ISO-8859-1.
+ * UTF-16 and UTF-32 contents are narrowed to one byte per code unit on their
+ * way into the machine, see {@link WideEncoding}.
+ * <p>
+ * Only {@link #classifyContents} is public, for benchmarks and other tools
+ * that classify contents which do not come from a file.
+ *
+ * @author varun
+ */
+public class LineClassifier
+{
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	// The number of bytes read at once in comments
+	private static final int WORD = Long.SIZE / Byte.SIZE;
+	private static final long SPACES = 0x2020202020202020L;
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LFS = LOW_BITS * LF;
+	private static final long CRS = LOW_BITS * CR;
+
+	// Buffers without an array are classified in pieces of this size
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// States of the machine kept from one line to the next; string
+	// literals and line comments end with the line
+	private static final int CODE = 0;
+	private static final int BLOCK_COMMENT = 1;
+
+	// What was seen on the current line
+	private static final int SEEN_CODE = 1;
+	private static final int SEEN_COMMENT = 2;
+	private static final int SEEN_TERMINATOR = 4;
+
+	private final LOCStatistics statistics;
+	private final boolean ignoreEmptyLines;
+	private final Language.Rules rules;
+	private final int blockCommentStartLength;
+	private final int terminatorLength;
+	private final WideEncoding wide;
+
+	private boolean isMultiLineCommentStarted = false;
+	private boolean isMultiLineStatementStarted = false;
+
+	private byte[] chunk;
+	private byte[] wideChunk;
+
+	LineClassifier( LOCStatistics statistics, boolean ignoreEmptyLines, Language language )
+	{
+		this( statistics, ignoreEmptyLines, language, null );
+	}
+
+	/**
+	 * @param statistics
+	 * @param ignoreEmptyLines
+	 * @param language
+	 * @param wide
+	 *            The encoding of the contents if they have code units of
+	 *            more than one byte, otherwise <code>null</code>.
+	 */
+	LineClassifier( LOCStatistics statistics, boolean ignoreEmptyLines, Language language, WideEncoding wide )
+	{
+		this.wide = wide;
+		this.statistics = statistics;
+		this.ignoreEmptyLines = ignoreEmptyLines;
+		this.rules = language.getRules();
+		this.blockCommentStartLength = rules.length( Language.Rules.BLOCK_COMMENT_START );
+		this.terminatorLength = rules.length( Language.Rules.STATEMENT_TERMINATOR );
+	}
+
+	/**
+	 * Classifies complete contents held in a buffer with the rules of
+	 * {@link Languages#getDefault()}.
+	 *
+	 * @see #classifyContents(ByteBuffer, int, LOCStatistics, boolean, Language)
+	 */
+	public static boolean classifyContents( ByteBuffer buffer, int length, LOCStatistics statistics, boolean ignoreEmptyLines )
+	{
+		return classifyContents( buffer, length, statistics, ignoreEmptyLines, Languages.getDefault() );
+	}
+
+	/**
+	 * Classifies complete contents held in a buffer, unless they are not
+	 * source, see {@link #textStart(byte[], int)}.
+	 *
+	 * @param buffer
+	 *            A buffer with an accessible array.
+	 * @param length
+	 * @param statistics
+	 * @param ignoreEmptyLines
+	 * @param language
+	 * @return <code>false</code> if the contents are not a source file.
+	 */
+	public static boolean classifyContents( ByteBuffer buffer, int length, LOCStatistics statistics, boolean ignoreEmptyLines, Language language )
+	{
+		int start = textStart( buffer.array(), length );
+		if ( start < 0 )
+		{
+			return false;
+		}
+
+		WideEncoding wide = WideEncoding.detect( buffer.array(), length );
+		new LineClassifier( statistics, ignoreEmptyLines, language, wide ).classify( buffer, start, length, true );
+		return true;
+	}
+
+	/**
+	 * Decides from the first bytes of a file whether it is source. Files with
+	 * the byte order mark of UTF-8, UTF-16 or UTF-32 are; others are unless
+	 * they are binary, see {@link IOUtil#isBinary(byte[], int, int)}. The
+	 * code units of UTF-16 and UTF-32 files are given by
+	 * {@link WideEncoding#detect(byte[], int)}.
+	 *
+	 * @param bytes
+	 *            The start of the file.
+	 * @param length
+	 *            The number of bytes read, best at least
+	 *            {@link IOUtil#BINARY_SAMPLE_SIZE} or all of the file.
+	 * @return The offset of the first byte to classify, behind the byte order
+	 *         mark, or <code>-1</code> if the file is not source.
+	 */
+	static int textStart( byte[] bytes, int length )
+	{
+		WideEncoding wide = WideEncoding.detect( bytes, length );
+		if ( wide != null )
+		{
+			return wide.width;
+		}
+		int start = 0;
+		String encoding = IOUtil.detectEncoding( bytes, Math.min( 4, length ) );
+		if ( IOUtil.UTF_8_BOM.equals( encoding ) )
+		{
+			start = 3;
+		}
+		else if ( encoding != null )
+		{
+			return -1;
+		}
+		return IOUtil.isBinary( bytes, start, length ) ? -1 : start;
+	}
+
+	/**
+	 * Classifies all complete lines between <tt>from</tt> and <tt>to</tt>.
+	 * Lines are terminated by LF, CR or CR LF, the same as
+	 * {@link java.io.BufferedReader#readLine()}. A trailing incomplete line is
+	 * only classified when <tt>endOfInput</tt> is set; otherwise its offset is
+	 * returned so the caller can keep it for the next call. The state carried
+	 * from one line to the next only changes when a line is complete, so the
+	 * incomplete line is read again from its start.
+	 * <p>
+	 * Buffers without an accessible array, such as mapped files, and wide
+	 * contents are copied into an array piece by piece first. Offsets are
+	 * given in bytes also for wide contents; a trailing incomplete code unit
+	 * is not consumed.
+	 *
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @param endOfInput
+	 * @return The offset of the first byte that was not consumed.
+	 */
+	int classify( ByteBuffer buffer, int from, int to, boolean endOfInput )
+	{
+		if ( buffer.hasArray() && wide == null )
+		{
+			int offset = buffer.arrayOffset();
+			return classify( buffer.array(), offset + from, offset + to, endOfInput ) - offset;
+		}
+
+		if ( chunk == null )
+		{
+			chunk = new byte[CHUNK_SIZE];
+		}
+		int width = wide != null ? wide.width : 1;
+		int position = from;
+		while ( to - position >= width )
+		{
+			int available = ( to - position ) / width;
+			int length = Math.min( chunk.length, available );
+			boolean lastChunk = length == available;
+			fill( buffer, position, length );
+			int consumed = classify( chunk, 0, length, endOfInput && lastChunk );
+			if ( lastChunk )
+			{
+				return position + consumed * width;
+			}
+			if ( consumed == 0 )
+			{
+				// A line longer than the chunk
+				chunk = new byte[chunk.length * 2];
+			}
+			position += consumed * width;
+		}
+		return position;
+	}
+
+	/**
+	 * Copies <tt>length</tt> characters from <tt>position</tt> on into the
+	 * chunk, narrowing wide code units to one byte.
+	 */
+	private void fill( ByteBuffer buffer, int position, int length )
+	{
+		if ( wide == null )
+		{
+			ByteBuffer source = buffer.duplicate();
+			source.position( position );
+			source.get( chunk, 0, length );
+			return;
+		}
+
+		if ( buffer.hasArray() )
+		{
+			wide.narrow( buffer.array(), buffer.arrayOffset() + position, length, chunk );
+			return;
+		}
+		int bytes = length * wide.width;
+		if ( wideChunk == null || wideChunk.length < bytes )
+		{
+			wideChunk = new byte[chunk.length * wide.width];
+		}
+		ByteBuffer source = buffer.duplicate();
+		source.position( position );
+		source.get( wideChunk, 0, bytes );
+		wide.narrow( wideChunk, 0, length, chunk );
+	}
+
+	private int classify( byte[] bytes, int from, int to, boolean endOfInput )
+	{
+		byte[] byteKinds = rules.byteKinds;
+		ByteBuffer words = ByteBuffer.wrap( bytes );
+
+		int lineStart = from;
+		int state = isMultiLineCommentStarted ? BLOCK_COMMENT : CODE;
+		int seen = 0;
+		int first = -1;
+		int last = -1;
+		for ( int i = from; i < to; i++ )
+		{
+			int b = bytes[i] & 0xff;
+			byte kind = byteKinds[b];
+			if ( kind == Language.Rules.BLANK )
+			{
+				i = skipBlanks( bytes, words, i, to );
+				continue;
+			}
+
+			if ( kind == Language.Rules.LINE_BREAK )
+			{
+				if ( b == CR )
+				{
+					if ( i + 1 < to )
+					{
+						if ( bytes[i + 1] == LF )
+						{
+							i++;
+						}
+					}
+					else if ( !endOfInput )
+					{
+						// The LF of a CR LF pair may still be on its way
+						return lineStart;
+					}
+				}
+				updateLocStatistics( bytes, first, last + 1, seen, state == BLOCK_COMMENT );
+				lineStart = i + 1;
+				state = isMultiLineCommentStarted ? BLOCK_COMMENT : CODE;
+				seen = 0;
+				first = -1;
+				continue;
+			}
+
+			if ( first < 0 )
+			{
+				first = i;
+				if ( state == BLOCK_COMMENT )
+				{
+					seen = SEEN_COMMENT;
+				}
+			}
+
+			// The skip methods return the complement of the last offset when
+			// the line ends before the literal or comment does
+			if ( state == BLOCK_COMMENT )
+			{
+				i = skipBlockComment( bytes, words, i, to );
+				if ( i >= 0 )
+				{
+					state = CODE;
+				}
+				else
+				{
+					i = ~i;
+				}
+			}
+			else if ( kind == 0 )
+			{
+				seen |= SEEN_CODE;
+				i = skipCode( bytes, i, to );
+			}
+			else if ( kind == Language.Rules.TERMINATOR )
+			{
+				seen |= SEEN_CODE | SEEN_TERMINATOR;
+			}
+			else if ( kind == Language.Rules.QUOTE )
+			{
+				seen |= SEEN_CODE;
+				i = skipString( bytes, words, i, to );
+				if ( i < 0 )
+				{
+					i = ~i;
+				}
+			}
+			else
+			{
+				switch ( rules.match( bytes, i, to ) )
+				{
+				case Language.Rules.LINE_COMMENT:
+					seen |= SEEN_COMMENT;
+					i = skipLine( bytes, words, i, to );
+					break;
+				case Language.Rules.BLOCK_COMMENT_START:
+					seen |= SEEN_COMMENT;
+					i = skipBlockComment( bytes, words, i + blockCommentStartLength, to );
+					if ( i < 0 )
+					{
+						i = ~i;
+						state = BLOCK_COMMENT;
+					}
+					break;
+				case Language.Rules.STATEMENT_TERMINATOR:
+					seen |= SEEN_CODE | SEEN_TERMINATOR;
+					i += terminatorLength - 1;
+					break;
+				default:
+					seen |= SEEN_CODE;
+				}
+			}
+			last = i;
+		}
+
+		if ( endOfInput && lineStart < to )
+		{
+			updateLocStatistics( bytes, first, last + 1, seen, state == BLOCK_COMMENT );
+			lineStart = to;
+		}
+		return lineStart;
+	}
+
+	/**
+	 * @return The offset of the last blank after <tt>i</tt>.
+	 */
+	private int skipBlanks( byte[] bytes, ByteBuffer words, int i, int to )
+	{
+		// Indentation is mostly spaces, eight at a time
+		while ( to - i > WORD && words.getLong( i + 1 ) == SPACES )
+		{
+			i += WORD;
+		}
+		byte[] byteKinds = rules.byteKinds;
+		while ( i + 1 < to && byteKinds[bytes[i + 1] & 0xff] == Language.Rules.BLANK )
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return The offset of the last byte of the code at <tt>i</tt> that
+	 *         holds no quote, marker or line break. It may be a blank.
+	 */
+	private int skipCode( byte[] bytes, int i, int to )
+	{
+		byte[] byteKinds = rules.byteKinds;
+		while ( i + 1 < to && byteKinds[bytes[i + 1] & 0xff] <= Language.Rules.BLANK )
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return The offset of the last byte before the end of the line at
+	 *         <tt>i</tt>.
+	 */
+	private static int skipLine( byte[] bytes, ByteBuffer words, int i, int to )
+	{
+		while ( to - i > WORD )
+		{
+			long word = words.getLong( i + 1 );
+			if ( ( matches( word, LFS ) | matches( word, CRS ) ) != 0 )
+			{
+				break;
+			}
+			i += WORD;
+		}
+		while ( i + 1 < to && bytes[i + 1] != LF && bytes[i + 1] != CR )
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @param i
+	 *            The offset of the opening quote.
+	 * @return The offset of the closing quote, or the complement of the offset
+	 *         of the last byte of the line if it has none.
+	 */
+	private int skipString( byte[] bytes, ByteBuffer words, int i, int to )
+	{
+		byte quote = bytes[i];
+		int escape = rules.escape;
+		long quotes = broadcast( quote );
+		// Without an escape character, look for the quote twice
+		long escapes = escape >= 0 ? broadcast( escape ) : quotes;
+		while ( true )
+		{
+			// Eight bytes at a time while none of them can matter
+			while ( to - i > WORD )
+			{
+				long word = words.getLong( i + 1 );
+				if ( ( matches( word, LFS ) | matches( word, CRS ) | matches( word, quotes ) | matches( word, escapes ) ) != 0 )
+				{
+					break;
+				}
+				i += WORD;
+			}
+			if ( i + 1 == to || bytes[i + 1] == LF || bytes[i + 1] == CR )
+			{
+				return ~i;
+			}
+			byte b = bytes[++i];
+			if ( b == quote )
+			{
+				return i;
+			}
+			if ( b == escape && i + 1 < to && bytes[i + 1] != LF && bytes[i + 1] != CR )
+			{
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * @param i
+	 *            The offset of the first byte inside the comment.
+	 * @return The offset of the last byte of the end marker, or the
+	 *         complement of the offset of the last byte of the line if the
+	 *         comment does not end on it.
+	 */
+	private int skipBlockComment( byte[] bytes, ByteBuffer words, int i, int to )
+	{
+		byte[] end = rules.blockCommentEnd;
+		long ends = broadcast( end[0] );
+		// Continue with the byte at i, as with the ones behind it
+		i--;
+		while ( true )
+		{
+			while ( to - i > WORD )
+			{
+				long word = words.getLong( i + 1 );
+				if ( ( matches( word, LFS ) | matches( word, CRS ) | matches( word, ends ) ) != 0 )
+				{
+					break;
+				}
+				i += WORD;
+			}
+			if ( i + 1 == to || bytes[i + 1] == LF || bytes[i + 1] == CR )
+			{
+				return ~i;
+			}
+			i++;
+			if ( bytes[i] == end[0] && to - i >= end.length && Language.Rules.regionMatches( bytes, i, end ) )
+			{
+				return i + end.length - 1;
+			}
+		}
+	}
+
+	/**
+	 * Counts a complete line from what was seen on it.
+	 *
+	 * @param line
+	 * @param start
+	 *            The offset of the first non-blank byte, <code>-1</code> for
+	 *            a blank line.
+	 * @param end
+	 *            The offset after the last byte read on the line; blanks at
+	 *            the end are trimmed here.
+	 * @param seen
+	 * @param endsInComment
+	 *            Whether a block comment is still open at the end of the line.
+	 */
+	private void updateLocStatistics( byte[] line, int start, int end, int seen, boolean endsInComment )
+	{
+		statistics.linesOfCode++;
+		boolean startsInComment = isMultiLineCommentStarted;
+		isMultiLineCommentStarted = endsInComment;
+
+		if ( start < 0 )
+		{
+			if ( ignoreEmptyLines )
+			{
+				statistics.emptyLines++;
+			}
+			return;
+		}
+		while ( ( line[end - 1] & 0xff ) <= ' ' )
+		{
+			end--;
+		}
+
+		if ( startsInComment && ( seen & SEEN_CODE ) == 0 )
+		{
+			// Lines inside a block comment are not counted, only the ones
+			// that open or close it
+			if ( !endsInComment )
+			{
+				statistics.commentedLines++;
+			}
+			return;
+		}
+
+		int lineStart = startsInComment ? 0 : rules.lineStarts[line[start] & 0xff];
+		if ( lineStart != 0 )
+		{
+			if ( ( lineStart & Language.Rules.INEFFECTIVE_START ) != 0 && equalsAny( line, start, end, rules.ineffectiveLines ) )
+			{
+				if ( isMultiLineStatementStarted )
+				{
+					statistics.effectiveLinesOfCode++;
+					isMultiLineStatementStarted = false;
+				}
+				else
+					statistics.ineffectiveLinesOfCode++;
+				return;
+			}
+
+			if ( ( lineStart & Language.Rules.IMPORT_START ) != 0 && startsWithAny( line, start, end, rules.importKeywords ) )
+			{
+				statistics.importStatements++;
+				return;
+			}
+
+			if ( ( lineStart & Language.Rules.PACKAGE_START ) != 0 && startsWithAny( line, start, end, rules.packageKeywords ) )
+			{
+				statistics.packageStatements++;
+				return;
+			}
+		}
+
+		if ( ( seen & SEEN_COMMENT ) != 0 )
+		{
+			statistics.commentedLines++;
+			if ( ( seen & SEEN_CODE ) != 0 )
+			{
+				statistics.effectiveLinesOfCode++;
+			}
+			return;
+		}
+
+		if ( rules.hasStatementTerminator && ( seen & SEEN_TERMINATOR ) == 0 )
+		{
+			isMultiLineStatementStarted = true;
+			return;
+		}
+		statistics.effectiveLinesOfCode++;
+	}
+
+	/**
+	 * @return <tt>b</tt> in each of the eight bytes of a word.
+	 */
+	private static long broadcast( int b )
+	{
+		return ( b & 0xffL ) * LOW_BITS;
+	}
+
+	/**
+	 * @return A word with the high bit set for, at least, the bytes of
+	 *         <tt>word</tt> that equal the bytes of <tt>pattern</tt>, and no
+	 *         bits at all if none do.
+	 */
+	private static long matches( long word, long pattern )
+	{
+		long x = word ^ pattern;
+		return ( x - LOW_BITS ) & ~x & HIGH_BITS;
+	}
+
+	private static boolean equalsAny( byte[] line, int start, int end, byte[][] markers )
+	{
+		for ( byte[] marker : markers )
+		{
+			if ( end - start == marker.length && Language.Rules.regionMatches( line, start, marker ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean startsWithAny( byte[] line, int start, int end, byte[][] markers )
+	{
+		for ( byte[] marker : markers )
+		{
+			if ( end - start >= marker.length && Language.Rules.regionMatches( line, start, marker ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,28 +1,22 @@
 package org.varun.core;
 
-import javax.swing.JProgressBar;
-
-public class Listener
+/**
+ * Receives the progress of {@link LOCCount#process()}. In the parallel modes
+ * it is called from the counting threads.
+ *
+ * @author varun
+ */
+public interface Listener
 {
-	private JProgressBar progressBar;
-
-	public JProgressBar getProgressBar()
-	{
-		return progressBar;
-	}
-
-	public void setProgressBar( JProgressBar progressBar )
-	{
-		this.progressBar = progressBar;
-	}
-
-	public void setMaxSize( int size )
-	{
-		progressBar.setMaximum( size );
-	}
+	/**
+	 * @param size
+	 *            The number of files found so far.
+	 */
+	void setMaxSize( int size );
 
-	public void setCount( int count )
-	{
-		progressBar.setValue( count );
-	}
+	/**
+	 * @param count
+	 *            The number of files counted so far.
+	 */
+	void setCount( int count );
 }
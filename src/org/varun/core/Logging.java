@@ -0,0 +1,74 @@
+package org.varun.core;
+
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The shared <tt>loccount</tt> logger. Logging is off by default, and the
+ * logger with its console handler is only created once logging is turned on,
+ * so a scan without logging never initializes <code>java.util.logging</code>.
+ *
+ * @author varun
+ */
+final class Logging
+{
+	private static volatile Level level = Level.OFF;
+
+	private Logging()
+	{
+	}
+
+	private static class Holder
+	{
+		static final Logger logger = Logger.getLogger( "loccount" );
+
+		static
+		{
+			logger.addHandler( new ConsoleHandler() );
+			logger.setUseParentHandlers( false );
+			logger.setLevel( level );
+		}
+	}
+
+	static void setLevel( Level newLevel )
+	{
+		level = newLevel;
+		if ( newLevel != Level.OFF )
+		{
+			Holder.logger.setLevel( newLevel );
+		}
+	}
+
+	static boolean isLoggable( Level messageLevel )
+	{
+		Level current = level;
+		return current != Level.OFF && messageLevel.intValue() >= current.intValue();
+	}
+
+	static void log( Level messageLevel, String message )
+	{
+		if ( isLoggable( messageLevel ) )
+		{
+			logFromCaller( messageLevel, message, null );
+		}
+	}
+
+	static void log( Level messageLevel, String message, Throwable thrown )
+	{
+		if ( isLoggable( messageLevel ) )
+		{
+			logFromCaller( messageLevel, message, thrown );
+		}
+	}
+
+	/**
+	 * Logs with the class and method that called {@link #log}, instead of
+	 * this class, as the source.
+	 */
+	private static void logFromCaller( Level messageLevel, String message, Throwable thrown )
+	{
+		StackTraceElement caller = new Throwable().getStackTrace()[2];
+		Holder.logger.logp( messageLevel, caller.getClassName(), caller.getMethodName(), message, thrown );
+	}
+}
@@ -0,0 +1,282 @@
+package org.varun.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Remembers the statistics of every counted file, keyed by its canonical
+ * path, size and last modified time, so that unchanged files do not have to
+ * be read again. The cache may be kept in memory only or backed by a file
+ * that is loaded when the cache is created and replaced atomically by
+ * {@link #save()}.
+ * <p>
+ * Instances are thread safe and can be shared by concurrent scans.
+ *
+ * @author varun
+ */
+public class ScanCache
+{
+	// "LOCC"
+	private static final int MAGIC = 0x4c4f4343;
+
+	// Has to change whenever the format or the line classification changes
+	private static final int VERSION = 4;
+
+
+	private final File file;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private static class Entry
+	{
+		final long size;
+		final long lastModified;
+		final boolean ignoreEmptyLines;
+		final LOCStatistics statistics;
+		volatile boolean seen;
+
+		Entry( long size, long lastModified, boolean ignoreEmptyLines, LOCStatistics statistics )
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.ignoreEmptyLines = ignoreEmptyLines;
+			this.statistics = statistics;
+		}
+	}
+
+	/**
+	 * Creates a cache that is kept in memory only.
+	 */
+	public ScanCache()
+	{
+		this.file = null;
+	}
+
+	/**
+	 * Creates a cache backed by <tt>file</tt>. If the file exists, its
+	 * entries are loaded; a file that cannot be read is ignored.
+	 *
+	 * @param file
+	 */
+	public ScanCache( File file )
+	{
+		this.file = file;
+		if ( file.isFile() )
+		{
+			try
+			{
+				load();
+			}
+			catch ( IOException e )
+			{
+				Logging.log( Level.WARNING, "Ignoring unreadable cache file: " + file.getAbsolutePath(), e );
+				entries.clear();
+			}
+		}
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return The number of cached files.
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the statistics stored for a file if its size and last modified
+	 * time are unchanged.
+	 *
+	 * @param path
+	 *            The canonical path of the file.
+	 * @param size
+	 * @param lastModified
+	 * @param ignoreEmptyLines
+	 *            The setting the statistics have to be calculated with.
+	 * @return The stored statistics or <code>null</code>.
+	 */
+	LOCStatistics get( String path, long size, long lastModified, boolean ignoreEmptyLines )
+	{
+		Entry entry = entries.get( path );
+		if ( entry == null || entry.size != size || entry.lastModified != lastModified || entry.ignoreEmptyLines != ignoreEmptyLines )
+		{
+			return null;
+		}
+		entry.seen = true;
+		return entry.statistics;
+	}
+
+	void put( String path, long size, long lastModified, boolean ignoreEmptyLines, LOCStatistics statistics )
+	{
+		Entry entry = new Entry( size, lastModified, ignoreEmptyLines, statistics );
+		entry.seen = true;
+		entries.put( path, entry );
+	}
+
+	/**
+	 * Drops the entries of files that no longer exist and, if the cache is
+	 * backed by a file, writes all entries to a temporary file that then
+	 * replaces the cache file. Scans that share the cache and end at the
+	 * same time save it one after the other.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException
+	{
+		for ( Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); )
+		{
+			Map.Entry<String, Entry> mapEntry = it.next();
+			Entry entry = mapEntry.getValue();
+			if ( !entry.seen && !new File( mapEntry.getKey() ).exists() )
+			{
+				it.remove();
+			}
+			entry.seen = false;
+		}
+
+		if ( file == null )
+		{
+			return;
+		}
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File tempFile = File.createTempFile( file.getName(), ".tmp", directory );
+		try
+		{
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+			try
+			{
+				write( out );
+			}
+			finally
+			{
+				out.close();
+			}
+
+			try
+			{
+				Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			}
+			catch ( AtomicMoveNotSupportedException e )
+			{
+				Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+		}
+		finally
+		{
+			tempFile.delete();
+		}
+	}
+
+	private void load() throws IOException
+	{
+		DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		try
+		{
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+			{
+				Logging.log( Level.INFO, "Ignoring cache file of another version: " + file.getAbsolutePath() );
+				return;
+			}
+			int count = in.readInt();
+			for ( int i = 0; i < count; i++ )
+			{
+				String path = in.readUTF();
+				long size = readVarLong( in );
+				long lastModified = readVarLong( in );
+				boolean ignoreEmptyLines = in.readBoolean();
+				LOCStatistics statistics = new LOCStatistics();
+				statistics.noOfSourceFiles = readVarLong( in );
+				statistics.noOfNonSourceFiles = readVarLong( in );
+				statistics.linesOfCode = readVarLong( in );
+				statistics.effectiveLinesOfCode = readVarLong( in );
+				statistics.ineffectiveLinesOfCode = readVarLong( in );
+				statistics.importStatements = readVarLong( in );
+				statistics.packageStatements = readVarLong( in );
+				statistics.commentedLines = readVarLong( in );
+				statistics.emptyLines = readVarLong( in );
+				entries.put( path, new Entry( size, lastModified, ignoreEmptyLines, statistics ) );
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private void write( DataOutputStream out ) throws IOException
+	{
+		// Take a snapshot, the map may change while it is written
+		Map<String, Entry> snapshot = new HashMap<String, Entry>( entries );
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+		out.writeInt( snapshot.size() );
+		for ( Map.Entry<String, Entry> mapEntry : snapshot.entrySet() )
+		{
+			Entry entry = mapEntry.getValue();
+			LOCStatistics statistics = entry.statistics;
+			out.writeUTF( mapEntry.getKey() );
+			writeVarLong( out, entry.size );
+			writeVarLong( out, entry.lastModified );
+			out.writeBoolean( entry.ignoreEmptyLines );
+			writeVarLong( out, statistics.noOfSourceFiles );
+			writeVarLong( out, statistics.noOfNonSourceFiles );
+			writeVarLong( out, statistics.linesOfCode );
+			writeVarLong( out, statistics.effectiveLinesOfCode );
+			writeVarLong( out, statistics.ineffectiveLinesOfCode );
+			writeVarLong( out, statistics.importStatements );
+			writeVarLong( out, statistics.packageStatements );
+			writeVarLong( out, statistics.commentedLines );
+			writeVarLong( out, statistics.emptyLines );
+		}
+	}
+
+	/**
+	 * Writes a non-negative value in groups of 7 bits, so that the small
+	 * counters of a typical file take one or two bytes.
+	 */
+	private static void writeVarLong( DataOutput out, long value ) throws IOException
+	{
+		while ( ( value & ~0x7fL ) != 0 )
+		{
+			out.writeByte( ( int ) ( ( value & 0x7f ) | 0x80 ) );
+			value >>>= 7;
+		}
+		out.writeByte( ( int ) value );
+	}
+
+	private static long readVarLong( DataInput in ) throws IOException
+	{
+		long value = 0;
+		for ( int shift = 0; shift < 64; shift += 7 )
+		{
+			byte b = in.readByte();
+			value |= ( long ) ( b & 0x7f ) << shift;
+			if ( ( b & 0x80 ) == 0 )
+			{
+				return value;
+			}
+		}
+		throw new IOException( "Malformed cache file" );
+	}
+}
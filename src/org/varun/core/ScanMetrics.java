@@ -0,0 +1,346 @@
+package org.varun.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects where the time of a scan goes: walking the directories, opening
+ * files, detecting their encoding, reading and classifying them. Besides the
+ * phase times it counts files, bytes and lines, and the number of files open
+ * at the same time.
+ * <p>
+ * All recording methods may be called from any counting thread; the counters
+ * are striped, so threads do not contend for them. While a scan runs, the
+ * metrics can be published as an MBean, see {@link #publish()}, and watched
+ * with JConsole or any other JMX client.
+ *
+ * @author varun
+ */
+public class ScanMetrics implements ScanMetricsMBean
+{
+	/**
+	 * Domain of the names under which metrics are published.
+	 */
+	public static final String DOMAIN = "org.varun.loccount";
+
+	static final int WALK = 0;
+	static final int OPEN = 1;
+	static final int DETECT = 2;
+	static final int READ = 3;
+	static final int CLASSIFY = 4;
+
+	private static final AtomicLong instances = new AtomicLong();
+
+	private final LongAdder[] phaseNanos = new LongAdder[CLASSIFY + 1];
+	private final LongAdder filesFound = new LongAdder();
+	private final LongAdder filesCounted = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder linesClassified = new LongAdder();
+	private final AtomicLong openFiles = new AtomicLong();
+	private final AtomicLong peakOpenFiles = new AtomicLong();
+
+	private final long id;
+	private ObjectName name;
+
+	private volatile long startTime;
+	private volatile long endTime;
+	private volatile boolean running;
+
+	public ScanMetrics()
+	{
+		this( instances.incrementAndGet() );
+	}
+
+	private ScanMetrics( long id )
+	{
+		this.id = id;
+		for ( int i = 0; i < phaseNanos.length; i++ )
+		{
+			phaseNanos[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Clears all counters and starts the clock.
+	 */
+	void start()
+	{
+		reset();
+		startTime = System.nanoTime();
+		running = true;
+	}
+
+	/**
+	 * Stops the clock.
+	 */
+	void stop()
+	{
+		endTime = System.nanoTime();
+		running = false;
+	}
+
+	void addTime( int phase, long nanos )
+	{
+		phaseNanos[phase].add( nanos );
+	}
+
+	void fileFound()
+	{
+		filesFound.increment();
+	}
+
+	void fileCounted()
+	{
+		filesCounted.increment();
+	}
+
+	void addBytes( long bytes )
+	{
+		bytesRead.add( bytes );
+	}
+
+	void addLines( long lines )
+	{
+		linesClassified.add( lines );
+	}
+
+	void fileOpened()
+	{
+		long open = openFiles.incrementAndGet();
+		long peak;
+		while ( open > ( peak = peakOpenFiles.get() ) && !peakOpenFiles.compareAndSet( peak, open ) )
+		{
+		}
+	}
+
+	void fileClosed()
+	{
+		openFiles.decrementAndGet();
+	}
+
+	/**
+	 * @return A copy of the counters and times as they are now, which is not
+	 *         running. It has the same {@link #getObjectName()}, but is not
+	 *         published.
+	 */
+	ScanMetrics snapshot()
+	{
+		ScanMetrics copy = new ScanMetrics( id );
+		for ( int i = 0; i < phaseNanos.length; i++ )
+		{
+			copy.phaseNanos[i].add( phaseNanos[i].sum() );
+		}
+		copy.filesFound.add( filesFound.sum() );
+		copy.filesCounted.add( filesCounted.sum() );
+		copy.bytesRead.add( bytesRead.sum() );
+		copy.linesClassified.add( linesClassified.sum() );
+		copy.openFiles.set( openFiles.get() );
+		copy.peakOpenFiles.set( peakOpenFiles.get() );
+		copy.startTime = startTime;
+		copy.endTime = startTime + elapsedNanos();
+		return copy;
+	}
+
+	/**
+	 * Registers this instance with the platform MBean server. Failures are
+	 * logged, as the scan works without it.
+	 */
+	void publish()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName();
+			if ( !server.isRegistered( name ) )
+			{
+				server.registerMBean( this, name );
+			}
+		}
+		catch ( JMException e )
+		{
+			Logging.log( Level.WARNING, "Could not publish scan metrics", e );
+		}
+	}
+
+	/**
+	 * Removes this instance from the platform MBean server.
+	 */
+	void unpublish()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName();
+			if ( server.isRegistered( name ) )
+			{
+				server.unregisterMBean( name );
+			}
+		}
+		catch ( JMException e )
+		{
+			Logging.log( Level.WARNING, "Could not unpublish scan metrics", e );
+		}
+	}
+
+	/**
+	 * @return The name under which this instance is published.
+	 */
+	public synchronized ObjectName getObjectName()
+	{
+		// Created on first use, so that JMX is only loaded when needed
+		if ( name == null )
+		{
+			try
+			{
+				name = new ObjectName( DOMAIN + ":type=ScanMetrics,id=" + id );
+			}
+			catch ( JMException e )
+			{
+				throw new IllegalStateException( e );
+			}
+		}
+		return name;
+	}
+
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	public long getElapsedTimeMillis()
+	{
+		return elapsedNanos() / 1000000;
+	}
+
+	private long elapsedNanos()
+	{
+		if ( startTime == 0 )
+		{
+			return 0;
+		}
+		return ( running ? System.nanoTime() : endTime ) - startTime;
+	}
+
+	public long getWalkTimeMillis()
+	{
+		return phaseNanos[WALK].sum() / 1000000;
+	}
+
+	public long getOpenTimeMillis()
+	{
+		return phaseNanos[OPEN].sum() / 1000000;
+	}
+
+	public long getDetectTimeMillis()
+	{
+		return phaseNanos[DETECT].sum() / 1000000;
+	}
+
+	public long getReadTimeMillis()
+	{
+		return phaseNanos[READ].sum() / 1000000;
+	}
+
+	public long getClassifyTimeMillis()
+	{
+		return phaseNanos[CLASSIFY].sum() / 1000000;
+	}
+
+	public long getFilesFound()
+	{
+		return filesFound.sum();
+	}
+
+	public long getFilesCounted()
+	{
+		return filesCounted.sum();
+	}
+
+	public long getBytesRead()
+	{
+		return bytesRead.sum();
+	}
+
+	public long getLinesClassified()
+	{
+		return linesClassified.sum();
+	}
+
+	public long getOpenFiles()
+	{
+		return openFiles.get();
+	}
+
+	public long getPeakOpenFiles()
+	{
+		return peakOpenFiles.get();
+	}
+
+	public double getFilesPerSecond()
+	{
+		return perSecond( filesCounted.sum() );
+	}
+
+	public double getBytesPerSecond()
+	{
+		return perSecond( bytesRead.sum() );
+	}
+
+	public double getLinesPerSecond()
+	{
+		return perSecond( linesClassified.sum() );
+	}
+
+	private double perSecond( long value )
+	{
+		long nanos = elapsedNanos();
+		return nanos == 0 ? 0 : value * 1000000000D / nanos;
+	}
+
+	/**
+	 * Clears all counters. The clock keeps running if a scan is in progress.
+	 */
+	public void reset()
+	{
+		for ( LongAdder nanos : phaseNanos )
+		{
+			nanos.reset();
+		}
+		filesFound.reset();
+		filesCounted.reset();
+		bytesRead.reset();
+		linesClassified.reset();
+		peakOpenFiles.set( openFiles.get() );
+		if ( running )
+		{
+			startTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Returns the metrics as a <code>List</code> of <code>String</code>s.
+	 */
+	public List<String> getMessages()
+	{
+		List<String> messages = new ArrayList<String>();
+		messages.add( "Elapsed time : " + getElapsedTimeMillis() + " ms" );
+		messages.add( "Walk time : " + getWalkTimeMillis() + " ms" );
+		messages.add( "Open time : " + getOpenTimeMillis() + " ms" );
+		messages.add( "Detect time : " + getDetectTimeMillis() + " ms" );
+		messages.add( "Read time : " + getReadTimeMillis() + " ms" );
+		messages.add( "Classify time : " + getClassifyTimeMillis() + " ms" );
+		messages.add( String.format( "Files/sec : %.1f", getFilesPerSecond() ) );
+		messages.add( String.format( "Bytes/sec : %.1f", getBytesPerSecond() ) );
+		messages.add( String.format( "Lines/sec : %.1f", getLinesPerSecond() ) );
+		messages.add( "Peak open files : " + getPeakOpenFiles() );
+		return messages;
+	}
+}
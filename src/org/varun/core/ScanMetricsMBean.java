@@ -0,0 +1,53 @@
+package org.varun.core;
+
+/**
+ * The management interface of {@link ScanMetrics}. Times are the sum over all
+ * counting threads, so in parallel modes they can add up to more than the
+ * elapsed time.
+ *
+ * @author varun
+ */
+public interface ScanMetricsMBean
+{
+	boolean isRunning();
+
+	long getElapsedTimeMillis();
+
+	long getWalkTimeMillis();
+
+	long getOpenTimeMillis();
+
+	/**
+	 * @return The time spent detecting encodings and, when deduplicating,
+	 *         hashing contents.
+	 */
+	long getDetectTimeMillis();
+
+	long getReadTimeMillis();
+
+	/**
+	 * @return The time spent classifying lines. For memory mapped files this
+	 *         includes reading them, as the pages are loaded on first access.
+	 */
+	long getClassifyTimeMillis();
+
+	long getFilesFound();
+
+	long getFilesCounted();
+
+	long getBytesRead();
+
+	long getLinesClassified();
+
+	long getOpenFiles();
+
+	long getPeakOpenFiles();
+
+	double getFilesPerSecond();
+
+	double getBytesPerSecond();
+
+	double getLinesPerSecond();
+
+	void reset();
+}
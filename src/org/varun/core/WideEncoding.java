@@ -0,0 +1,129 @@
+package org.varun.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An encoding with code units of two or four bytes, UTF-16 or UTF-32 in
+ * either byte order, as recognized by its byte order mark.
+ * <p>
+ * The {@link LineClassifier} does not decode such contents. It narrows every
+ * code unit to one byte instead: ASCII characters are kept and all others
+ * become {@link #NON_ASCII}. As all markers of a {@link Language} are ASCII,
+ * the lines are classified the same as in UTF-8, where characters outside of
+ * ASCII are bytes that only occur in words as well.
+ *
+ * @author varun
+ */
+final class WideEncoding
+{
+	/**
+	 * Stands for every character outside of ASCII.
+	 */
+	static final byte NON_ASCII = ( byte ) 0x80;
+
+	// The bits of four UTF-16 units read as a little endian long that are
+	// set for characters outside of ASCII
+	private static final long NON_ASCII_LE = 0xff80ff80ff80ff80L;
+	private static final long NON_ASCII_BE = 0x80ff80ff80ff80ffL;
+
+	static final WideEncoding UTF_16BE = new WideEncoding( 2, true );
+	static final WideEncoding UTF_16LE = new WideEncoding( 2, false );
+	static final WideEncoding UTF_32BE = new WideEncoding( 4, true );
+	static final WideEncoding UTF_32LE = new WideEncoding( 4, false );
+
+	/**
+	 * The number of bytes per code unit, which is also the length of the
+	 * byte order mark.
+	 */
+	final int width;
+	final boolean bigEndian;
+
+	private WideEncoding( int width, boolean bigEndian )
+	{
+		this.width = width;
+		this.bigEndian = bigEndian;
+	}
+
+	/**
+	 * @param bytes
+	 *            The start of the contents.
+	 * @param length
+	 * @return The encoding given by the byte order mark of the contents, or
+	 *         <code>null</code> if they have none of UTF-16 or UTF-32.
+	 * @see IOUtil#detectEncoding(byte[], int)
+	 */
+	static WideEncoding detect( byte[] bytes, int length )
+	{
+		String encoding = IOUtil.detectEncoding( bytes, Math.min( 4, length ) );
+		if ( encoding == null )
+			return null;
+		if ( encoding.equals( "UTF-16" ) )
+			return UTF_16BE;
+		if ( encoding.equals( "x-UTF-16LE-BOM" ) )
+			return UTF_16LE;
+		if ( encoding.equals( "X-UTF-32BE-BOM" ) )
+			return UTF_32BE;
+		if ( encoding.equals( "X-UTF-32LE-BOM" ) )
+			return UTF_32LE;
+		return null;
+	}
+
+	/**
+	 * Narrows <tt>units</tt> code units starting at <tt>offset</tt> to one
+	 * byte each.
+	 *
+	 * @param source
+	 * @param offset
+	 * @param units
+	 * @param target
+	 *            Receives the narrowed units from index <code>0</code>.
+	 */
+	void narrow( byte[] source, int offset, int units, byte[] target )
+	{
+		if ( width == 2 )
+		{
+			int low = bigEndian ? offset + 1 : offset;
+			int high = bigEndian ? offset : offset + 1;
+
+			// Four units at a time where they are all ASCII
+			ByteBuffer words = ByteBuffer.wrap( source ).order( ByteOrder.LITTLE_ENDIAN );
+			long mask = bigEndian ? NON_ASCII_BE : NON_ASCII_LE;
+			int shift = bigEndian ? 8 : 0;
+			int i = 0;
+			while ( i < units )
+			{
+				if ( i + 4 <= units )
+				{
+					long word = words.getLong( offset + 2 * i );
+					if ( ( word & mask ) == 0 )
+					{
+						word >>>= shift;
+						target[i] = ( byte ) word;
+						target[i + 1] = ( byte ) ( word >>> 16 );
+						target[i + 2] = ( byte ) ( word >>> 32 );
+						target[i + 3] = ( byte ) ( word >>> 48 );
+						i += 4;
+						continue;
+					}
+				}
+				for ( int end = Math.min( units, i + 4 ); i < end; i++ )
+				{
+					byte b = source[low + 2 * i];
+					target[i] = ( source[high + 2 * i] | b & 0x80 ) == 0 ? b : NON_ASCII;
+				}
+			}
+		}
+		else
+		{
+			int low = bigEndian ? offset + 3 : offset;
+			int high = bigEndian ? offset : offset + 1;
+			for ( int i = 0; i < units; i++ )
+			{
+				int p = high + 4 * i;
+				byte b = source[low + 4 * i];
+				target[i] = ( source[p] | source[p + 1] | source[p + 2] | b & 0x80 ) == 0 ? b : NON_ASCII;
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package org.varun.gui;
+
+import org.varun.core.Listener;
+
+import javax.swing.JProgressBar;
+
+/**
+ * Shows the progress of a scan in a {@link JProgressBar}.
+ *
+ * @author varun
+ */
+public class ProgressBarListener implements Listener
+{
+	private JProgressBar progressBar;
+
+	public JProgressBar getProgressBar()
+	{
+		return progressBar;
+	}
+
+	public void setProgressBar( JProgressBar progressBar )
+	{
+		this.progressBar = progressBar;
+	}
+
+	public void setMaxSize( int size )
+	{
+		progressBar.setMaximum( size );
+	}
+
+	public void setCount( int count )
+	{
+		progressBar.setValue( count );
+	}
+}
@@ -2,7 +2,8 @@ package org.varun.gui;
 
 import org.varun.core.Constants;
 import org.varun.core.LOCCount;
-import org.varun.core.Listener;
+import org.varun.core.LOCStatistics;
+import org.varun.core.LOCWatcher;
 
 import java.awt.BorderLayout;
 import java.awt.Cursor;
@@ -11,6 +12,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -43,9 +45,11 @@ public class UIMain extends JPanel implements ActionListener
 	private JButton calculateButton;
 	private JFileChooser fc;
 	private JCheckBox recursiveOption;
+	private JCheckBox watchOption;
 	private JTextField inclFilesInput;
 	private JTextField exclFilesInput;
 	private JProgressBar progressBar;
+	private LOCWatcher watcher;
 
 	public UIMain()
 	{
@@ -96,6 +100,10 @@ public class UIMain extends JPanel implements ActionListener
 
 		optionsPanel.add( recursiveOption );
 
+		watchOption = new JCheckBox( "Watch for changes" );
+		watchOption.setMnemonic( KeyEvent.VK_W );
+		optionsPanel.add( watchOption );
+
 		//Calculate panel
 		JPanel calculatePanel = new JPanel();
 		calculateButton = new JButton( "Calculate LOC" );
@@ -204,12 +212,36 @@ public class UIMain extends JPanel implements ActionListener
 
 						// Set listener in counter. This will update the
 						// progressBar.
-						Listener listener = new Listener();
+						ProgressBarListener listener = new ProgressBarListener();
 						listener.setProgressBar( progressBar );
 						counter.setListener( listener );
-
-						counter.process();
-						messages = counter.getMessages();
+						counter.setPublishMetrics( true );
+
+						stopWatching();
+						if ( watchOption.isSelected() )
+						{
+							// Count once, then keep the log up to date
+							watcher = new LOCWatcher( counter );
+							LOCStatistics totals = watcher.start( new LOCWatcher.ChangeListener()
+							{
+								public void totalsChanged( final LOCStatistics totals )
+								{
+									SwingUtilities.invokeLater( new Runnable()
+									{
+										public void run()
+										{
+											showMessages( totals.getMessages( true ) );
+										}
+									} );
+								}
+							} );
+							messages = totals.getMessages( true );
+						}
+						else
+						{
+							counter.process();
+							messages = counter.getMessages();
+						}
 					}
 					catch ( Exception e )
 					{
@@ -222,11 +254,7 @@ public class UIMain extends JPanel implements ActionListener
 				@Override
 				public void finished()
 				{
-					List<String> messages = getValue();
-					for ( String msg : messages )
-					{
-						log.append( msg + "\n" );
-					}
+					showMessages( getValue() );
 					calculateButton.setEnabled( true );
 					progressBar.setCursor( null );
 				}
@@ -235,6 +263,31 @@ public class UIMain extends JPanel implements ActionListener
 		}
 	}
 
+	private void showMessages( List<String> messages )
+	{
+		log.setText( "" );
+		for ( String msg : messages )
+		{
+			log.append( msg + "\n" );
+		}
+	}
+
+	private void stopWatching()
+	{
+		if ( watcher != null )
+		{
+			try
+			{
+				watcher.close();
+			}
+			catch ( IOException e )
+			{
+				e.printStackTrace();
+			}
+			watcher = null;
+		}
+	}
+
 	/**
 	 * Create the GUI and show it. For thread safety, this method should be
 	 * invoked from the event-dispatching thread.
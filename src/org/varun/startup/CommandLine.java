@@ -0,0 +1,379 @@
+package org.varun.startup;
+
+import org.varun.core.GitHistory;
+import org.varun.core.LOCCount;
+import org.varun.core.LOCResult;
+import org.varun.core.LOCStatistics;
+import org.varun.core.ScanCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The headless front end. It counts one or more files or directories and
+ * prints the results as text or JSON. Nothing of AWT or Swing is loaded, so
+ * it starts quickly and runs on machines without a display.
+ *
+ * @author varun
+ */
+public class CommandLine
+{
+	/**
+	 * Include mask used when none is given; matches every file name.
+	 */
+	public static final String ALL_FILES = ".+";
+
+	private static final String USAGE = "Usage: loccount [options] <file or directory>...\n" //
+			+ "  -r, --recursive           Scan directories recursively\n" //
+			+ "  -e, --ignore-empty-lines  Count empty lines separately\n" //
+			+ "  -i, --include <masks>     Files to include, separated by ';' (default: all)\n" //
+			+ "  -x, --exclude <masks>     Files to exclude, separated by ';'\n" //
+			+ "  -t, --threads <n>         Number of counting threads\n" //
+			+ "      --pipelined           Count while walking the directories\n" //
+			+ "      --thread-per-file     Count every file on its own thread\n" //
+			+ "      --max-open-files <n>  Files open at once with --thread-per-file\n" //
+			+ "      --dedup               Classify identical files only once\n" //
+			+ "      --archives            Count the entries of zip, jar, tar and gz files\n" //
+			+ "      --use-ignore-files    Skip what .gitignore and .locignore files ignore\n" //
+			+ "      --no-follow-links     Skip links instead of walking their targets\n" //
+			+ "      --cache <file>        Reuse the results of unchanged files\n" //
+			+ "      --metrics             Report where the time went\n" //
+			+ "      --git-history <n>     Count the last n commits of a git repository\n" //
+			+ "  -f, --format text|json    Output format (default: text)\n" //
+			+ "  -h, --help                Show this help";
+
+	private final List<String> roots = new ArrayList<String>();
+	private boolean recursive;
+	private boolean ignoreEmptyLines;
+	private String include = ALL_FILES;
+	private String exclude = "";
+	private int threads = 1;
+	private boolean pipelined;
+	private boolean threadPerFile;
+	private int maxOpenFiles = LOCCount.DEFAULT_MAX_OPEN_FILES;
+	private boolean deduplicate;
+	private boolean archives;
+	private boolean useIgnoreFiles;
+	private boolean followLinks = true;
+	private String cache;
+	private boolean metrics;
+	private int gitHistory;
+	private boolean json;
+
+	/**
+	 * Parses the arguments.
+	 *
+	 * @param args
+	 * @throws IllegalArgumentException
+	 *             If an argument is not valid.
+	 */
+	public CommandLine( String[] args )
+	{
+		for ( int i = 0; i < args.length; i++ )
+		{
+			String arg = args[i];
+			if ( arg.equals( "-r" ) || arg.equals( "--recursive" ) )
+				recursive = true;
+			else if ( arg.equals( "-e" ) || arg.equals( "--ignore-empty-lines" ) )
+				ignoreEmptyLines = true;
+			else if ( arg.equals( "-i" ) || arg.equals( "--include" ) )
+				include = value( args, ++i, arg );
+			else if ( arg.equals( "-x" ) || arg.equals( "--exclude" ) )
+				exclude = value( args, ++i, arg );
+			else if ( arg.equals( "-t" ) || arg.equals( "--threads" ) )
+				threads = number( args, ++i, arg );
+			else if ( arg.equals( "--pipelined" ) )
+				pipelined = true;
+			else if ( arg.equals( "--thread-per-file" ) )
+				threadPerFile = true;
+			else if ( arg.equals( "--max-open-files" ) )
+				maxOpenFiles = number( args, ++i, arg );
+			else if ( arg.equals( "--dedup" ) )
+				deduplicate = true;
+			else if ( arg.equals( "--archives" ) )
+				archives = true;
+			else if ( arg.equals( "--use-ignore-files" ) )
+				useIgnoreFiles = true;
+			else if ( arg.equals( "--no-follow-links" ) )
+				followLinks = false;
+			else if ( arg.equals( "--cache" ) )
+				cache = value( args, ++i, arg );
+			else if ( arg.equals( "--metrics" ) )
+				metrics = true;
+			else if ( arg.equals( "--git-history" ) )
+				gitHistory = number( args, ++i, arg );
+			else if ( arg.equals( "-f" ) || arg.equals( "--format" ) )
+			{
+				String format = value( args, ++i, arg );
+				if ( !format.equals( "text" ) && !format.equals( "json" ) )
+				{
+					throw new IllegalArgumentException( "Unknown format: " + format );
+				}
+				json = format.equals( "json" );
+			}
+			else if ( arg.startsWith( "-" ) && arg.length() > 1 )
+				throw new IllegalArgumentException( "Unknown option: " + arg );
+			else
+				roots.add( arg );
+		}
+		if ( roots.isEmpty() )
+		{
+			throw new IllegalArgumentException( "No file or directory given" );
+		}
+	}
+
+	private static String value( String[] args, int i, String option )
+	{
+		if ( i >= args.length )
+		{
+			throw new IllegalArgumentException( "Missing value for " + option );
+		}
+		return args[i];
+	}
+
+	/**
+	 * @return The positive number at <tt>i</tt>.
+	 */
+	private static int number( String[] args, int i, String option )
+	{
+		String value = value( args, i, option );
+		int number;
+		try
+		{
+			number = Integer.parseInt( value );
+		}
+		catch ( NumberFormatException e )
+		{
+			throw new IllegalArgumentException( "Not a number for " + option + ": " + value );
+		}
+		if ( number < 1 )
+		{
+			throw new IllegalArgumentException( "Must be at least 1 for " + option + ": " + value );
+		}
+		return number;
+	}
+
+	/**
+	 * Counts all roots and prints the results to <tt>out</tt>.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void run( PrintStream out ) throws IOException
+	{
+		if ( gitHistory > 0 )
+		{
+			runGitHistory( out );
+			return;
+		}
+		// One engine scans all roots, so they share its threads and cache
+		LOCCount counter = new LOCCount( roots.get( 0 ), recursive, ignoreEmptyLines, include, exclude );
+		counter.setParallelism( threads );
+		counter.setPipelined( pipelined );
+		counter.setThreadPerFile( threadPerFile );
+		counter.setMaxOpenFiles( maxOpenFiles );
+		counter.setDeduplicate( deduplicate );
+		counter.setScanArchives( archives );
+		counter.setUseIgnoreFiles( useIgnoreFiles );
+		counter.setFollowLinks( followLinks );
+		counter.setScanCache( cache != null ? new ScanCache( new File( cache ) ) : null );
+
+		List<LOCResult> results = new ArrayList<LOCResult>();
+		LOCStatistics total = new LOCStatistics();
+		try
+		{
+			for ( String root : roots )
+			{
+				File rootFile = new File( root );
+				if ( !rootFile.exists() )
+				{
+					throw new IOException( "File or Directory not found: " + root );
+				}
+				LOCResult result = counter.scan( rootFile );
+				results.add( result );
+				total.add( result.getStatistics() );
+			}
+		}
+		finally
+		{
+			counter.close();
+		}
+
+		if ( json )
+			out.println( toJson( results, total ) );
+		else
+			printText( out, results, total );
+	}
+
+	/**
+	 * Counts the last commits of every root, which has to be a git
+	 * repository, and prints the statistics of each commit, oldest first.
+	 */
+	private void runGitHistory( PrintStream out ) throws IOException
+	{
+		List<List<GitHistory.Revision>> histories = new ArrayList<List<GitHistory.Revision>>();
+		for ( String root : roots )
+		{
+			if ( !new File( root ).isDirectory() )
+			{
+				throw new IOException( "Directory not found: " + root );
+			}
+			histories.add( new GitHistory( new File( root ), ignoreEmptyLines, include, exclude ).scan( gitHistory ) );
+		}
+
+		if ( json )
+		{
+			StringBuilder text = new StringBuilder( "{\"roots\":[" );
+			for ( int i = 0; i < histories.size(); i++ )
+			{
+				if ( i > 0 )
+				{
+					text.append( ',' );
+				}
+				text.append( "{\"path\":" );
+				Json.appendString( text, roots.get( i ) );
+				text.append( ",\"commits\":[" );
+				List<GitHistory.Revision> revisions = histories.get( i );
+				for ( int j = 0; j < revisions.size(); j++ )
+				{
+					GitHistory.Revision revision = revisions.get( j );
+					if ( j > 0 )
+					{
+						text.append( ',' );
+					}
+					text.append( "{\"commit\":" );
+					Json.appendString( text, revision.getCommit() );
+					text.append( ",\"commitTime\":" ).append( revision.getCommitTime() );
+					text.append( ",\"statistics\":" );
+					Json.appendStatistics( text, revision.getStatistics() );
+					text.append( '}' );
+				}
+				text.append( "]}" );
+			}
+			out.println( text.append( "]}" ) );
+			return;
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+		for ( int i = 0; i < histories.size(); i++ )
+		{
+			if ( histories.size() > 1 )
+			{
+				out.println( "== " + roots.get( i ) + " ==" );
+			}
+			for ( GitHistory.Revision revision : histories.get( i ) )
+			{
+				out.println( "-- " + revision.getCommit() + " " + format.format( new Date( revision.getCommitTime() ) ) + " --" );
+				print( out, revision.getStatistics().getMessages( ignoreEmptyLines ) );
+			}
+		}
+	}
+
+	private void printText( PrintStream out, List<LOCResult> results, LOCStatistics total )
+	{
+		boolean several = results.size() > 1;
+		for ( int i = 0; i < results.size(); i++ )
+		{
+			LOCResult result = results.get( i );
+			if ( several )
+			{
+				out.println( "== " + roots.get( i ) + " ==" );
+			}
+			print( out, result.getMessages() );
+			if ( metrics )
+			{
+				print( out, result.getMetrics().getMessages() );
+			}
+		}
+		if ( several )
+		{
+			out.println( "== Total ==" );
+			print( out, total.getMessages( ignoreEmptyLines ) );
+		}
+	}
+
+	private static void print( PrintStream out, List<String> messages )
+	{
+		for ( String message : messages )
+		{
+			out.println( message );
+		}
+	}
+
+	private String toJson( List<LOCResult> results, LOCStatistics total )
+	{
+		StringBuilder out = new StringBuilder( "{\"roots\":[" );
+		for ( int i = 0; i < results.size(); i++ )
+		{
+			LOCResult result = results.get( i );
+			if ( i > 0 )
+			{
+				out.append( ',' );
+			}
+			out.append( "{\"path\":" );
+			Json.appendString( out, roots.get( i ) );
+			out.append( ",\"statistics\":" );
+			Json.appendStatistics( out, result.getStatistics() );
+			if ( deduplicate )
+			{
+				out.append( ",\"duplicateFiles\":" ).append( result.getDuplicateFiles() );
+				out.append( ",\"duplicateBytes\":" ).append( result.getDuplicateBytes() );
+			}
+			if ( metrics )
+			{
+				out.append( ",\"metrics\":" );
+				Json.appendMetrics( out, result.getMetrics() );
+			}
+			out.append( '}' );
+		}
+		out.append( "],\"total\":" );
+		Json.appendStatistics( out, total );
+		return out.append( '}' ).toString();
+	}
+
+	/**
+	 * Exits with <tt>0</tt> on success, <tt>1</tt> if a scan failed and
+	 * <tt>2</tt> if the arguments are not valid.
+	 *
+	 * @param args
+	 */
+	public static void main( String[] args )
+	{
+		for ( String arg : args )
+		{
+			if ( arg.equals( "-h" ) || arg.equals( "--help" ) )
+			{
+				System.out.println( USAGE );
+				return;
+			}
+		}
+
+		CommandLine commandLine;
+		try
+		{
+			commandLine = new CommandLine( args );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			System.err.println( e.getMessage() );
+			System.err.println( USAGE );
+			System.exit( 2 );
+			return;
+		}
+
+		try
+		{
+			commandLine.run( System.out );
+		}
+		catch ( IOException e )
+		{
+			System.err.println( e.getMessage() );
+			System.exit( 1 );
+		}
+	}
+}
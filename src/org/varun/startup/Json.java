@@ -0,0 +1,95 @@
+package org.varun.startup;
+
+import org.varun.core.LOCStatistics;
+import org.varun.core.ScanMetrics;
+
+/**
+ * Writes the results of a scan as JSON. Only the few shapes needed by the
+ * front ends are supported, so no JSON library has to be loaded.
+ *
+ * @author varun
+ */
+final class Json
+{
+	private Json()
+	{
+	}
+
+	/**
+	 * Appends <tt>value</tt> as a JSON string.
+	 */
+	static StringBuilder appendString( StringBuilder out, String value )
+	{
+		out.append( '"' );
+		for ( int i = 0; i < value.length(); i++ )
+		{
+			char c = value.charAt( i );
+			switch ( c )
+			{
+			case '"':
+				out.append( "\\\"" );
+				break;
+			case '\\':
+				out.append( "\\\\" );
+				break;
+			case '\n':
+				out.append( "\\n" );
+				break;
+			case '\r':
+				out.append( "\\r" );
+				break;
+			case '\t':
+				out.append( "\\t" );
+				break;
+			default:
+				if ( c < 0x20 )
+				{
+					out.append( String.format( "\\u%04x", ( int ) c ) );
+				}
+				else
+				{
+					out.append( c );
+				}
+			}
+		}
+		return out.append( '"' );
+	}
+
+	/**
+	 * Appends the counters of <tt>statistics</tt> as a JSON object.
+	 */
+	static StringBuilder appendStatistics( StringBuilder out, LOCStatistics statistics )
+	{
+		out.append( '{' );
+		out.append( "\"sourceFiles\":" ).append( statistics.getNoOfSourceFiles() );
+		out.append( ",\"nonSourceFiles\":" ).append( statistics.getNoOfNonSourceFiles() );
+		out.append( ",\"linesOfCode\":" ).append( statistics.getLinesOfCode() );
+		out.append( ",\"effectiveLinesOfCode\":" ).append( statistics.getEffectiveLinesOfCode() );
+		out.append( ",\"ineffectiveLinesOfCode\":" ).append( statistics.getIneffectiveLinesOfCode() );
+		out.append( ",\"packageStatements\":" ).append( statistics.getPackageStatements() );
+		out.append( ",\"importStatements\":" ).append( statistics.getImportStatements() );
+		out.append( ",\"commentedLines\":" ).append( statistics.getCommentedLines() );
+		out.append( ",\"emptyLines\":" ).append( statistics.getEmptyLines() );
+		return out.append( '}' );
+	}
+
+	/**
+	 * Appends the phase times and counters of <tt>metrics</tt> as a JSON
+	 * object.
+	 */
+	static StringBuilder appendMetrics( StringBuilder out, ScanMetrics metrics )
+	{
+		out.append( '{' );
+		out.append( "\"elapsedTimeMillis\":" ).append( metrics.getElapsedTimeMillis() );
+		out.append( ",\"walkTimeMillis\":" ).append( metrics.getWalkTimeMillis() );
+		out.append( ",\"openTimeMillis\":" ).append( metrics.getOpenTimeMillis() );
+		out.append( ",\"detectTimeMillis\":" ).append( metrics.getDetectTimeMillis() );
+		out.append( ",\"readTimeMillis\":" ).append( metrics.getReadTimeMillis() );
+		out.append( ",\"classifyTimeMillis\":" ).append( metrics.getClassifyTimeMillis() );
+		out.append( ",\"filesCounted\":" ).append( metrics.getFilesCounted() );
+		out.append( ",\"bytesRead\":" ).append( metrics.getBytesRead() );
+		out.append( ",\"linesClassified\":" ).append( metrics.getLinesClassified() );
+		out.append( ",\"peakOpenFiles\":" ).append( metrics.getPeakOpenFiles() );
+		return out.append( '}' );
+	}
+}
@@ -6,6 +6,13 @@ public class Main
 {
 	public static void main( String[] args )
 	{
+		//With arguments, run headless
+		if ( args.length > 0 )
+		{
+			CommandLine.main( args );
+			return;
+		}
+
 		//Schedule a job for the event-dispatching thread:
 		//creating and showing this application's GUI.
 		javax.swing.SwingUtilities.invokeLater( new Runnable()
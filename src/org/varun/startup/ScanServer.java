@@ -0,0 +1,406 @@
+package org.varun.startup;
+
+import org.varun.core.LOCCount;
+import org.varun.core.LOCResult;
+import org.varun.core.ScanCache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long running scan server on the loopback interface. Every root that was
+ * scanned keeps an in-memory {@link ScanCache}, so a repeated scan of an
+ * unchanged tree only walks it and compares sizes and modification times;
+ * no file is read again. The JVM also stays warm between requests.
+ * <p>
+ * Every root also keeps the {@link LOCCount} it was scanned with, together
+ * with its threads, and scans it again as long as the requests ask for the
+ * same settings. Only the most recently scanned roots are kept, see
+ * {@link #DEFAULT_MAX_ROOTS}. Requests are handled concurrently:
+ * <ul>
+ * <li><tt>GET /scan?root=&lt;path&gt;</tt> with the optional parameters
+ * <tt>recursive</tt>, <tt>ignoreEmptyLines</tt>, <tt>include</tt>,
+ * <tt>exclude</tt>, <tt>threads</tt>, <tt>archives</tt>,
+ * <tt>useIgnoreFiles</tt> and <tt>followLinks</tt> returns the statistics
+ * and metrics of the scan as JSON.</li>
+ * <li><tt>GET /status</tt> returns the number of requests served and of
+ * cached roots and files.</li>
+ * </ul>
+ *
+ * @author varun
+ */
+public class ScanServer
+{
+	/**
+	 * Port used when none is given.
+	 */
+	public static final int DEFAULT_PORT = 7431;
+
+	/**
+	 * Number of roots whose cache and engine are kept when none is given.
+	 */
+	public static final int DEFAULT_MAX_ROOTS = 64;
+
+	// The parameters that configure the engine of a scan
+	private static final String[] SETTINGS = { "recursive", "ignoreEmptyLines", "include", "exclude", "threads", "archives", "useIgnoreFiles", "followLinks" };
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	// One cache and engine per canonical root, so evicting the entries of
+	// deleted files after a scan only looks at the files of that tree. The
+	// least recently scanned root is dropped when there are too many.
+	private final Map<String, Root> roots;
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * The state kept for a scanned root.
+	 * <p>
+	 * Requests for the same root may run at the same time, so an engine is
+	 * only closed when no scan uses it any more: either after it was replaced
+	 * by one with other settings, or after the root was dropped.
+	 */
+	private static class Root
+	{
+		final ScanCache cache = new ScanCache();
+
+		// The engine of the last scan and the settings it was configured
+		// with
+		private LOCCount engine;
+		private String settings;
+
+		// The number of running scans of every engine that is still open
+		private final Map<LOCCount, Integer> users = new IdentityHashMap<LOCCount, Integer>();
+		private boolean closed;
+
+		/**
+		 * Returns the engine for <tt>settings</tt>, the one of the last scan
+		 * if they are the same. Every engine acquired has to be handed to
+		 * {@link #release(LOCCount)} when its scan is done.
+		 */
+		synchronized LOCCount acquire( String root, Map<String, String> parameters )
+		{
+			String requested = settings( parameters );
+			if ( engine == null || !requested.equals( settings ) )
+			{
+				LOCCount replaced = engine;
+				engine = newEngine( root, parameters );
+				engine.setScanCache( cache );
+				settings = requested;
+				closeIfIdle( replaced );
+			}
+			Integer count = users.get( engine );
+			users.put( engine, count == null ? 1 : count + 1 );
+			return engine;
+		}
+
+		synchronized void release( LOCCount released )
+		{
+			int count = users.get( released ) - 1;
+			if ( count > 0 )
+			{
+				users.put( released, count );
+				return;
+			}
+			users.remove( released );
+			if ( released != engine || closed )
+			{
+				released.close();
+			}
+		}
+
+		/**
+		 * Closes the engine once its running scans are done.
+		 */
+		synchronized void close()
+		{
+			closed = true;
+			closeIfIdle( engine );
+		}
+
+		private void closeIfIdle( LOCCount counter )
+		{
+			if ( counter != null && !users.containsKey( counter ) )
+			{
+				counter.close();
+			}
+		}
+	}
+
+	/**
+	 * Binds the server to <tt>port</tt> on the loopback address. It does not
+	 * accept requests before {@link #start()}.
+	 *
+	 * @param port
+	 *            <code>0</code> picks a free port.
+	 * @param threads
+	 *            The number of requests handled at the same time.
+	 * @throws IOException
+	 */
+	public ScanServer( int port, int threads ) throws IOException
+	{
+		this( port, threads, DEFAULT_MAX_ROOTS );
+	}
+
+	/**
+	 * Same as {@link #ScanServer(int, int)}, but keeps the state of at most
+	 * <tt>maxRoots</tt> roots.
+	 *
+	 * @param port
+	 * @param threads
+	 * @param maxRoots
+	 *            The number of roots whose cache and engine are kept.
+	 * @throws IOException
+	 */
+	public ScanServer( int port, int threads, final int maxRoots ) throws IOException
+	{
+		if ( maxRoots < 1 )
+		{
+			throw new IllegalArgumentException( "Must keep at least one root: " + maxRoots );
+		}
+		roots = new LinkedHashMap<String, Root>( 16, 0.75f, true )
+		{
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<String, Root> eldest )
+			{
+				if ( size() <= maxRoots )
+				{
+					return false;
+				}
+				eldest.getValue().close();
+				return true;
+			}
+		};
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+		executor = Executors.newFixedThreadPool( threads );
+		server.setExecutor( executor );
+		server.createContext( "/scan", new HttpHandler()
+		{
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				handleScan( exchange );
+			}
+		} );
+		server.createContext( "/status", new HttpHandler()
+		{
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				handleStatus( exchange );
+			}
+		} );
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits at most one second for running ones.
+	 */
+	public void stop()
+	{
+		server.stop( 1 );
+		executor.shutdown();
+		synchronized ( roots )
+		{
+			for ( Root root : roots.values() )
+			{
+				root.close();
+			}
+			roots.clear();
+		}
+	}
+
+	/**
+	 * @return The port the server listens on.
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	private void handleScan( HttpExchange exchange ) throws IOException
+	{
+		requests.incrementAndGet();
+		try
+		{
+			Map<String, String> parameters = parseQuery( exchange.getRequestURI().getRawQuery() );
+			String root = parameters.get( "root" );
+			if ( root == null )
+			{
+				respond( exchange, 400, error( "Missing parameter: root" ) );
+				return;
+			}
+			File rootFile = new File( root );
+			if ( !rootFile.exists() )
+			{
+				respond( exchange, 404, error( "File or Directory not found: " + root ) );
+				return;
+			}
+
+			Root state = getRoot( rootFile );
+			LOCCount engine = state.acquire( root, parameters );
+			LOCResult result;
+			try
+			{
+				result = engine.scan( rootFile );
+			}
+			finally
+			{
+				state.release( engine );
+			}
+
+			StringBuilder json = new StringBuilder( "{\"path\":" );
+			Json.appendString( json, root );
+			json.append( ",\"statistics\":" );
+			Json.appendStatistics( json, result.getStatistics() );
+			json.append( ",\"metrics\":" );
+			Json.appendMetrics( json, result.getMetrics() );
+			json.append( '}' );
+			respond( exchange, 200, json.toString() );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			respond( exchange, 400, error( e.getMessage() ) );
+		}
+		catch ( IOException e )
+		{
+			respond( exchange, 500, error( String.valueOf( e.getMessage() ) ) );
+		}
+	}
+
+	private void handleStatus( HttpExchange exchange ) throws IOException
+	{
+		long files = 0;
+		int cachedRoots;
+		synchronized ( roots )
+		{
+			for ( Root root : roots.values() )
+			{
+				files += root.cache.size();
+			}
+			cachedRoots = roots.size();
+		}
+		respond( exchange, 200, "{\"requests\":" + requests.get() + ",\"cachedRoots\":" + cachedRoots + ",\"cachedFiles\":" + files + "}" );
+	}
+
+	private Root getRoot( File root ) throws IOException
+	{
+		String key = root.getCanonicalPath();
+		synchronized ( roots )
+		{
+			Root state = roots.get( key );
+			if ( state == null )
+			{
+				state = new Root();
+				roots.put( key, state );
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * @return The settings of a scan as a single string, to compare them.
+	 */
+	private static String settings( Map<String, String> parameters )
+	{
+		StringBuilder settings = new StringBuilder();
+		for ( String name : SETTINGS )
+		{
+			settings.append( name ).append( '=' ).append( parameters.get( name ) ).append( '\0' );
+		}
+		return settings.toString();
+	}
+
+	private static LOCCount newEngine( String root, Map<String, String> parameters )
+	{
+		boolean ignoreEmptyLines = Boolean.parseBoolean( parameters.get( "ignoreEmptyLines" ) );
+		String include = parameters.containsKey( "include" ) ? parameters.get( "include" ) : CommandLine.ALL_FILES;
+		String exclude = parameters.containsKey( "exclude" ) ? parameters.get( "exclude" ) : "";
+		LOCCount counter = new LOCCount( root, Boolean.parseBoolean( parameters.get( "recursive" ) ), ignoreEmptyLines, include, exclude );
+		if ( parameters.containsKey( "threads" ) )
+		{
+			counter.setParallelism( Integer.parseInt( parameters.get( "threads" ) ) );
+		}
+		counter.setScanArchives( Boolean.parseBoolean( parameters.get( "archives" ) ) );
+		counter.setUseIgnoreFiles( Boolean.parseBoolean( parameters.get( "useIgnoreFiles" ) ) );
+		counter.setFollowLinks( !"false".equalsIgnoreCase( parameters.get( "followLinks" ) ) );
+		return counter;
+	}
+
+	private static Map<String, String> parseQuery( String query ) throws UnsupportedEncodingException
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+		if ( query == null || query.isEmpty() )
+		{
+			return parameters;
+		}
+		for ( String pair : query.split( "&" ) )
+		{
+			int equals = pair.indexOf( '=' );
+			if ( equals < 0 )
+			{
+				parameters.put( URLDecoder.decode( pair, "UTF-8" ), "" );
+			}
+			else
+			{
+				parameters.put( URLDecoder.decode( pair.substring( 0, equals ), "UTF-8" ), URLDecoder.decode( pair.substring( equals + 1 ), "UTF-8" ) );
+			}
+		}
+		return parameters;
+	}
+
+	private static String error( String message )
+	{
+		return Json.appendString( new StringBuilder( "{\"error\":" ), message ).append( '}' ).toString();
+	}
+
+	private static void respond( HttpExchange exchange, int status, String json ) throws IOException
+	{
+		byte[] body = json.getBytes( StandardCharsets.UTF_8 );
+		exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+		exchange.sendResponseHeaders( status, body.length );
+		OutputStream out = exchange.getResponseBody();
+		try
+		{
+			out.write( body );
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Usage: <tt>ScanServer [port [threads]]</tt>
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main( String[] args ) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt( args[0] ) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt( args[1] ) : Runtime.getRuntime().availableProcessors();
+		ScanServer scanServer = new ScanServer( port, threads );
+		scanServer.start();
+		System.out.println( "Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + scanServer.getPort() + "/scan?root=<path>" );
+	}
+}
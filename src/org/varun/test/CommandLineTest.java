@@ -0,0 +1,124 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.varun.core.IOUtil;
+import org.varun.startup.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Tests methods in CommandLine
+ * 
+ * @author varun
+ */
+public class CommandLineTest
+{
+
+	private File tempRoot;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		tempRoot = new File( System.getProperty( "java.io.tmpdir" ), "junit.CommandLineTest" );
+		IOUtil.deleteDirectory( tempRoot );
+		new File( tempRoot, "dir" ).mkdirs();
+		write( new File( tempRoot, "Main.java" ), "package test;\n\n// Entry point\nclass Main\n{\n\tint i = 0;\n}\n" );
+		write( new File( tempRoot, "dir/Other.java" ), "package test;\nimport java.io.File;\n" );
+	}
+
+	@After
+	public void tearDown()
+	{
+		IOUtil.deleteDirectory( tempRoot );
+	}
+
+	private static void write( File file, String contents ) throws IOException
+	{
+		FileWriter writer = new FileWriter( file );
+		try
+		{
+			writer.write( contents );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private String run( String... args ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CommandLine( args ).run( new PrintStream( out, true ) );
+		return out.toString();
+	}
+
+	/**
+	 * Test method for {@link CommandLine#run(PrintStream)} with JSON output.
+	 */
+	@Test
+	public void testJson() throws IOException
+	{
+		String json = run( "-r", "-e", "--format", "json", tempRoot.getPath() );
+		assertTrue( json, json.startsWith( "{\"roots\":[{\"path\":" ) );
+		assertTrue( json, json.contains( "\"total\":{\"sourceFiles\":2,\"nonSourceFiles\":0,\"linesOfCode\":9," ) );
+		assertTrue( json, json.contains( "\"emptyLines\":1}" ) );
+	}
+
+	/**
+	 * Test method for {@link CommandLine#run(PrintStream)} with text output.
+	 */
+	@Test
+	public void testText() throws IOException
+	{
+		String text = run( "--include", "*.java", tempRoot.getPath() );
+		assertTrue( text, text.startsWith( "No. of source files : 1" + System.getProperty( "line.separator" ) ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnknownOption()
+	{
+		new CommandLine( new String[] { "--unknown", tempRoot.getPath() } );
+	}
+
+	@Test
+	public void testNumbers()
+	{
+		for ( String[] args : new String[][] { { "--threads", "0" }, { "-t", "-2" }, { "--max-open-files", "0" } } )
+		{
+			try
+			{
+				new CommandLine( new String[] { args[0], args[1], tempRoot.getPath() } );
+			}
+			catch ( IllegalArgumentException e )
+			{
+				assertEquals( "Must be at least 1 for " + args[0] + ": " + args[1], e.getMessage() );
+				continue;
+			}
+			throw new AssertionError( "Expected IllegalArgumentException for " + args[0] + " " + args[1] );
+		}
+	}
+
+	@Test
+	public void testMissingRoot()
+	{
+		try
+		{
+			new CommandLine( new String[] { "-r" } );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			assertEquals( "No file or directory given", e.getMessage() );
+			return;
+		}
+		throw new AssertionError( "Expected IllegalArgumentException" );
+	}
+}
@@ -0,0 +1,85 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.varun.benchmark.CorpusGenerator;
+import org.varun.core.IOUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * @author varun
+ */
+public class CorpusGeneratorTest
+{
+
+	private File tempRoot;
+
+	@Before
+	public void setUp()
+	{
+		tempRoot = new File( System.getProperty( "java.io.tmpdir" ), "junit.CorpusGeneratorTest" );
+		IOUtil.deleteDirectory( tempRoot );
+	}
+
+	@After
+	public void tearDown()
+	{
+		IOUtil.deleteDirectory( tempRoot );
+	}
+
+	@Test
+	public void testSameSeedSameTree() throws IOException
+	{
+		File first = new File( tempRoot, "first" );
+		File second = new File( tempRoot, "second" );
+		File other = new File( tempRoot, "other" );
+
+		assertEquals( 70, generator( 7 ).generate( first ) );
+		generator( 7 ).generate( second );
+		generator( 8 ).generate( other );
+
+		assertSameTree( first, second );
+		assertFalse( Arrays.equals( Files.readAllBytes( new File( first, "Source0.java" ).toPath() ), Files.readAllBytes( new File( other, "Source0.java" ).toPath() ) ) );
+	}
+
+	private static CorpusGenerator generator( long seed )
+	{
+		CorpusGenerator generator = new CorpusGenerator( seed );
+		generator.setDepth( 1 );
+		generator.setFanOut( 6 );
+		generator.setMedianLines( 20 );
+		generator.setLongLineLength( 100 );
+		return generator;
+	}
+
+	private static void assertSameTree( File expected, File actual ) throws IOException
+	{
+		String[] names = expected.list();
+		Arrays.sort( names );
+		String[] actualNames = actual.list();
+		Arrays.sort( actualNames );
+		assertArrayEquals( names, actualNames );
+
+		for ( String name : names )
+		{
+			File file = new File( expected, name );
+			if ( file.isDirectory() )
+			{
+				assertSameTree( file, new File( actual, name ) );
+			}
+			else
+			{
+				assertArrayEquals( name, Files.readAllBytes( file.toPath() ), Files.readAllBytes( new File( actual, name ).toPath() ) );
+			}
+		}
+	}
+}
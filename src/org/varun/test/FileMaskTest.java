@@ -0,0 +1,59 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.varun.core.Constants;
+import org.varun.core.FileMask;
+
+/**
+ * Tests methods in FileMask
+ * 
+ * @author varun
+ */
+public class FileMaskTest
+{
+
+	private static final String[] FILE_NAMES =
+	{ "Main.java", "Main.jav", "Mainjava", "java", "xjava", ".java", "a.b.java", "my-file.java", "file1", "File.JAVA", "build.xml", "Test_1.c", "Makefile", "" };
+
+	/**
+	 * Test method for {@link FileMask#matches(String)} with extension masks.
+	 */
+	@Test
+	public void testExtensionMasks()
+	{
+		FileMask mask = new FileMask( "*.java; *.xml" );
+		assertTrue( mask.matches( "Main.java" ) );
+		assertTrue( mask.matches( "build.xml" ) );
+		assertFalse( mask.matches( "Main.jav" ) );
+		assertFalse( mask.matches( "File.JAVA" ) );
+		assertFalse( new FileMask( "" ).matches( "Main.java" ) );
+	}
+
+	/**
+	 * Compiled masks must give the same result as matching each mask on its
+	 * own with {@link String#matches(String)}.
+	 */
+	@Test
+	public void testSameAsRegularExpressions()
+	{
+		String[] masksLists =
+		{ "*.java", "*.*", "*", "*.java;*.xml", "Make*;*.c", "*.java;Main.*", "Test_?.c" };
+		for ( String masksList : masksLists )
+		{
+			FileMask mask = new FileMask( masksList );
+			for ( String fileName : FILE_NAMES )
+			{
+				boolean expected = false;
+				for ( String m : masksList.split( Constants.SEMICOLON ) )
+				{
+					expected |= fileName.matches( m.trim().replaceAll( Constants.ASTERISK, Constants.WILD_CHARS ) );
+				}
+				assertEquals( masksList + " / " + fileName, expected, mask.matches( fileName ) );
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.varun.core.GitHistory;
+import org.varun.core.IOUtil;
+import org.varun.startup.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests methods in GitHistory
+ *
+ * @author varun
+ */
+public class GitHistoryTest
+{
+
+	private File tempRoot;
+
+	/**
+	 * Creates a repository with a file at its root in the first commit and a
+	 * nested one in the second.
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		tempRoot = new File( System.getProperty( "java.io.tmpdir" ), "junit.GitHistoryTest" );
+		IOUtil.deleteDirectory( tempRoot );
+		new File( tempRoot, "sub" ).mkdirs();
+
+		git( "init", "-q" );
+		write( new File( tempRoot, "A.java" ), "package test;\n\nclass A\n{\n}\n" );
+		write( new File( tempRoot, "README" ), "Not counted\n" );
+		git( "add", "." );
+		git( "commit", "-q", "-m", "First" );
+		write( new File( tempRoot, "sub/B.java" ), "package test.sub;\nimport java.io.File;\n" );
+		git( "add", "." );
+		git( "commit", "-q", "-m", "Second" );
+	}
+
+	@After
+	public void tearDown()
+	{
+		IOUtil.deleteDirectory( tempRoot );
+	}
+
+	private void git( String... arguments ) throws Exception
+	{
+		List<String> command = new ArrayList<String>( Arrays.asList( "git", "-C", tempRoot.getPath(), "-c", "user.name=test", "-c", "user.email=test@example.com", "-c", "commit.gpgsign=false" ) );
+		command.addAll( Arrays.asList( arguments ) );
+		Process process = new ProcessBuilder( command ).inheritIO().start();
+		assertEquals( "git " + arguments[0], 0, process.waitFor() );
+	}
+
+	private static void write( File file, String contents ) throws IOException
+	{
+		FileWriter writer = new FileWriter( file );
+		try
+		{
+			writer.write( contents );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Test method for {@link GitHistory#scan(int)}.
+	 */
+	@Test
+	public void testScan() throws IOException
+	{
+		List<GitHistory.Revision> revisions = new GitHistory( tempRoot, false, "*.java", "" ).scan( 5 );
+		assertEquals( 2, revisions.size() );
+
+		//Files at the root of the repository count as well as nested ones
+		assertEquals( 1, revisions.get( 0 ).getStatistics().getNoOfSourceFiles() );
+		assertEquals( 5, revisions.get( 0 ).getStatistics().getLinesOfCode() );
+		assertEquals( 2, revisions.get( 1 ).getStatistics().getNoOfSourceFiles() );
+		assertEquals( 7, revisions.get( 1 ).getStatistics().getLinesOfCode() );
+		assertEquals( 2, revisions.get( 1 ).getStatistics().getPackageStatements() );
+	}
+
+	/**
+	 * Test method for <tt>--git-history</tt> of {@link CommandLine}.
+	 */
+	@Test
+	public void testCommandLine() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CommandLine( new String[] { "--git-history", "1", "-i", "*.java", "-f", "json", tempRoot.getPath() } ).run( new PrintStream( out, true ) );
+		String json = out.toString();
+		assertTrue( json, json.contains( "\"commits\":[{\"commit\":" ) );
+		assertTrue( json, json.contains( "\"statistics\":{\"sourceFiles\":2," ) );
+	}
+}
@@ -1,6 +1,8 @@
 package org.varun.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -109,6 +111,33 @@ public class IOUtilTest
 		inputStream.close();
 	}
 
+	/**
+	 * Test method for {@link IOUtil#isBinary(byte[], int, int)}
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testIsBinaryBytes() throws IOException
+	{
+		byte[] utf8 = "// Gr\u00fc\u00dfe, \u4e16\u754c\n\tint a;\r\n".getBytes( "UTF-8" );
+		assertFalse( IOUtil.isBinary( utf8, 0, utf8.length ) );
+		// Cut off in the middle of a sequence
+		assertFalse( IOUtil.isBinary( utf8, 0, 6 ) );
+
+		byte[] latin1 = "// Gr\u00fc\u00dfe aus K\u00f6ln\nint a;\n".getBytes( "ISO-8859-1" );
+		assertFalse( IOUtil.isBinary( latin1, 0, latin1.length ) );
+
+		byte[] nul = "int a;\u0000\n".getBytes( "UTF-8" );
+		assertTrue( IOUtil.isBinary( nul, 0, nul.length ) );
+
+		byte[] controls = new byte[] { 'a', 1, 2, 3, ( byte ) 0xff, ( byte ) 0xfe, 'b', 'c' };
+		assertTrue( IOUtil.isBinary( controls, 0, controls.length ) );
+
+		assertTrue( IOUtil.isBinaryFileName( "Main.CLASS" ) );
+		assertFalse( IOUtil.isBinaryFileName( "Main.java" ) );
+		assertFalse( IOUtil.isBinaryFileName( "Makefile" ) );
+	}
+
 	/**
 	 * Test method for {@link IOUtil#containsNullCharacter(java.io.Reader)}
 	 * 
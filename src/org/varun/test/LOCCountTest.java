@@ -20,21 +20,39 @@
 package org.varun.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.varun.core.IOUtil;
 import org.varun.core.LOCCount;
+import org.varun.core.LOCResult;
+import org.varun.core.LOCStatistics;
+import org.varun.core.ScanCache;
+import org.varun.core.ScanMetrics;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * @author varun
@@ -162,6 +180,61 @@ public class LOCCountTest
 		assertEquals( 12, locNonEmpty.getEmptyLines() );
 	}
 
+	/**
+	 * Writes 1000 times the same six lines, about 44 KB, so that the file is
+	 * larger than the read buffer, and counts them.
+	 */
+	private LOCStatistics countLines( String name, String lineEnding ) throws IOException
+	{
+		File dir = new File( tempRoot, "endings/" + name );
+		dir.mkdirs();
+		String[] lines =
+		{ "package test;", "", "int i;", "// comment", "/* block", " comment */" };
+
+		BufferedWriter bw = new BufferedWriter( new FileWriter( new File( dir, "Lines.java" ) ) );
+		for ( int i = 0; i < 1000; i++ )
+		{
+			for ( String line : lines )
+			{
+				bw.write( line );
+				bw.write( lineEnding );
+			}
+		}
+		bw.close();
+
+		LOCCount locCount = new LOCCount( dir.getAbsolutePath(), true, true, "*.java", "" );
+		locCount.process();
+		return locCount.getStatistics();
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#process()} with line
+	 * endings other than LF.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testLineEndings() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testLineEndings ****************" );
+
+		LOCStatistics lf = countLines( "lf", "\n" );
+		assertEquals( 6000, lf.getLinesOfCode() );
+		assertEquals( 1000, lf.getEmptyLines() );
+		assertEquals( 1000, lf.getPackageStatements() );
+
+		//CR LF and CR end lines the same way, also in a file that takes
+		//several reads
+		for ( LOCStatistics statistics : new LOCStatistics[] { countLines( "crlf", "\r\n" ), countLines( "cr", "\r" ) } )
+		{
+			assertEquals( lf.getLinesOfCode(), statistics.getLinesOfCode() );
+			assertEquals( lf.getEffectiveLinesOfCode(), statistics.getEffectiveLinesOfCode() );
+			assertEquals( lf.getCommentedLines(), statistics.getCommentedLines() );
+			assertEquals( lf.getEmptyLines(), statistics.getEmptyLines() );
+			assertEquals( lf.getPackageStatements(), statistics.getPackageStatements() );
+		}
+	}
+
 	/**
 	 * Test method for {@link org.varun.core.LOCCount#getFileListRecursive(java.io.File, java.util.List)}.
 	 */
@@ -228,4 +301,399 @@ public class LOCCountTest
 		//There should have been 2 mathces
 		assertEquals( 2, count );
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#getFileListRecursive(java.io.File, java.util.List)}
+	 * with several masks.
+	 */
+	@Test
+	public void testGetFileListMasks()
+	{
+
+		logger.log( Level.INFO, "**************** testGetFileListMasks ****************" );
+
+		LOCCount locCount = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, false, "file*;*1", "*2" );
+		List<File> fileList = locCount.getFileListRecursive( new File( tempRoot ), new ArrayList<File>() );
+
+		//file1 matches both include masks but is listed once, the file2s are
+		//excluded and dir1 is walked, not listed
+		assertEquals( 4, fileList.size() );
+		assertTrue( fileList.contains( new File( tempRoot + "file1" ) ) );
+		assertTrue( fileList.contains( new File( tempRoot + "dir1/file" ) ) );
+		assertTrue( fileList.contains( new File( tempRoot + "dir1/dir2/file" ) ) );
+		assertTrue( fileList.contains( new File( tempRoot + "dir1/dir2/dir3/file1" ) ) );
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#setParallelism(int)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testParallelProcess() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testParallelProcess ****************" );
+
+		LOCCount sequential = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		sequential.process();
+
+		LOCCount parallel = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		parallel.setParallelism( 4 );
+		parallel.process();
+
+		//Both scans should report exactly the same totals
+		assertEquals( sequential.getMessages(), parallel.getMessages() );
+		assertEquals( 6, parallel.getStatistics().getNoOfSourceFiles() );
+		assertEquals( 48, parallel.getLoc() );
+		assertEquals( 12, parallel.getEmptyLines() );
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#setMappingThreshold(long)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testMappedProcess() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testMappedProcess ****************" );
+
+		LOCCount buffered = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		buffered.setMappingThreshold( Long.MAX_VALUE );
+		buffered.process();
+
+		LOCCount mapped = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		mapped.setMappingThreshold( 0 );
+		mapped.process();
+
+		//Mapping the files must not change the totals
+		assertEquals( buffered.getMessages(), mapped.getMessages() );
+		assertEquals( 48, mapped.getLoc() );
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#setPipelined(boolean)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testPipelinedProcess() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testPipelinedProcess ****************" );
+
+		LOCCount sequential = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		sequential.process();
+
+		LOCCount pipelined = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		pipelined.setPipelined( true );
+		pipelined.setParallelism( 3 );
+		pipelined.process();
+
+		//Walking and counting at the same time must give the same totals
+		assertEquals( sequential.getMessages(), pipelined.getMessages() );
+		assertEquals( 6, pipelined.getStatistics().getNoOfSourceFiles() );
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#setThreadPerFile(boolean)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testThreadPerFileProcess() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testThreadPerFileProcess ****************" );
+
+		LOCCount sequential = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		sequential.process();
+
+		LOCCount threadPerFile = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		threadPerFile.setThreadPerFile( true );
+		threadPerFile.setMaxOpenFiles( 2 );
+		threadPerFile.process();
+
+		assertEquals( sequential.getMessages(), threadPerFile.getMessages() );
+		assertEquals( 6, threadPerFile.getStatistics().getNoOfSourceFiles() );
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#setScanCache(ScanCache)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testScanCache() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testScanCache ****************" );
+
+		File cacheFile = new File( tempRoot, "dir1/scan.cache" );
+
+		LOCCount first = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		first.setScanCache( new ScanCache( cacheFile ) );
+		first.process();
+		assertEquals( 6, first.getScanCache().size() );
+
+		//The second scan reads all statistics from the cache file
+		LOCCount second = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		second.setScanCache( new ScanCache( cacheFile ) );
+		assertEquals( 6, second.getScanCache().size() );
+		second.process();
+		assertEquals( first.getMessages(), second.getMessages() );
+
+		//Entries of deleted files are dropped
+		new File( fileNames[0] ).delete();
+		LOCCount third = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		third.setScanCache( new ScanCache( cacheFile ) );
+		third.process();
+		assertEquals( 5, third.getScanCache().size() );
+		assertEquals( 40, third.getLoc() );
+	}
+
+	/**
+	 * Test method for {@link org.varun.core.LOCCount#setDeduplicate(boolean)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testDeduplicate() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testDeduplicate ****************" );
+
+		LOCCount locCount = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		locCount.setDeduplicate( true );
+		locCount.process();
+
+		//All 6 files have the same contents, so 5 of them are duplicates
+		assertEquals( 5, locCount.getDuplicateFiles() );
+		assertEquals( 48, locCount.getLoc() );
+		assertEquals( 12, locCount.getEmptyLines() );
+	}
+
+	/**
+	 * Test method for {@link LOCCount#getMetrics()}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testMetrics() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testMetrics ****************" );
+
+		LOCCount locCount = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		locCount.setPublishMetrics( true );
+		locCount.process();
+
+		ScanMetrics metrics = locCount.getMetrics();
+		assertEquals( 6, metrics.getFilesFound() );
+		assertEquals( 6, metrics.getFilesCounted() );
+		assertEquals( 48, metrics.getLinesClassified() );
+		assertEquals( 0, metrics.getOpenFiles() );
+		assertEquals( 1, metrics.getPeakOpenFiles() );
+		assertFalse( metrics.isRunning() );
+
+		//Only published while the scan runs
+		assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( metrics.getObjectName() ) );
+
+		//The metrics of a result do not change once it is returned
+		metrics.reset();
+		assertEquals( 0, metrics.getFilesCounted() );
+		assertEquals( 6, locCount.getResult().getMetrics().getFilesCounted() );
+		assertEquals( 48, locCount.getMetrics().getLinesClassified() );
+	}
+
+	/**
+	 * Test method for {@link LOCCount#scan()}.
+	 * @throws Exception 
+	 */
+	@Test
+	public void testRepeatedScan() throws Exception
+	{
+
+		logger.log( Level.INFO, "**************** testRepeatedScan ****************" );
+
+		final LOCCount locCount = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "*", "" );
+		LOCResult first = locCount.scan();
+		LOCResult second = locCount.scan();
+
+		//A second scan replaces the totals of the first one
+		assertEquals( first.getMessages(), second.getMessages() );
+		assertEquals( 48, second.getLoc() );
+		locCount.process();
+		locCount.process();
+		assertEquals( 48, locCount.getLoc() );
+
+		//Concurrent scans with the same instance do not share their totals
+		ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		List<Future<LOCResult>> results = new ArrayList<Future<LOCResult>>();
+		for ( int i = 0; i < 4; i++ )
+		{
+			results.add( executor.submit( new Callable<LOCResult>()
+			{
+				public LOCResult call() throws IOException
+				{
+					return locCount.scan();
+				}
+			} ) );
+		}
+		for ( Future<LOCResult> result : results )
+		{
+			assertEquals( first.getMessages(), result.get().getMessages() );
+		}
+		executor.shutdown();
+
+		//Other locations with the same configuration, on the threads the
+		//instance keeps between scans
+		locCount.setParallelism( 2 );
+		assertEquals( 24, locCount.scan( new File( tempRoot, "dir1/dir2" ) ).getLoc() );
+		assertEquals( 48, locCount.scan().getLoc() );
+		locCount.close();
+		assertEquals( 48, locCount.scan().getLoc() );
+		locCount.close();
+
+		locCount.reset();
+		assertEquals( 0, locCount.getLoc() );
+		assertEquals( 0, locCount.getStatistics().getNoOfSourceFiles() );
+	}
+
+	/**
+	 * Test method for {@link LOCCount#setScanArchives(boolean)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testArchives() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testArchives ****************" );
+
+		byte[] contents = "Line 1\nLine 2\n\nLine 3\n".getBytes( "UTF-8" );
+		File archiveDir = new File( tempRoot, "archives" );
+		archiveDir.mkdirs();
+
+		ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( new File( archiveDir, "sources.jar" ) ) );
+		for ( String name : new String[] { "a/Main.java", "a/b/Util.java", "README.txt" } )
+		{
+			zip.putNextEntry( new ZipEntry( name ) );
+			zip.write( contents );
+			zip.closeEntry();
+		}
+		zip.close();
+
+		GZIPOutputStream gzip = new GZIPOutputStream( new FileOutputStream( new File( archiveDir, "Single.java.gz" ) ) );
+		gzip.write( contents );
+		gzip.close();
+
+		//The masks apply to the entries, not to the archives
+		LOCCount locCount = new LOCCount( archiveDir.getAbsolutePath(), true, true, "*.java", "Util.java" );
+		locCount.setScanArchives( true );
+		locCount.process();
+		assertEquals( 2, locCount.getStatistics().getNoOfSourceFiles() );
+		assertEquals( 8, locCount.getLoc() );
+		assertEquals( 2, locCount.getEmptyLines() );
+
+		//Archives are left alone by default
+		locCount.setScanArchives( false );
+		locCount.process();
+		assertEquals( 0, locCount.getStatistics().getNoOfSourceFiles() );
+	}
+
+	/**
+	 * Test method for {@link LOCCount#setDeduplicate(boolean)} with archive
+	 * entries too large to be read at once.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testLargeArchiveEntries() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testLargeArchiveEntries ****************" );
+
+		//Two equal entries of 70 MB, larger than the 64 MB read at once
+		byte[] block = new byte[1024 * 1024];
+		for ( int i = 0; i < block.length; i += 8 )
+		{
+			System.arraycopy( "int ij;\n".getBytes( "UTF-8" ), 0, block, i, 8 );
+		}
+		int blocks = 70;
+		File archiveDir = new File( tempRoot, "archives" );
+		archiveDir.mkdirs();
+		ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( new File( archiveDir, "large.jar" ) ) );
+		for ( String name : new String[] { "a/Large.java", "b/Large.java" } )
+		{
+			zip.putNextEntry( new ZipEntry( name ) );
+			for ( int i = 0; i < blocks; i++ )
+			{
+				zip.write( block );
+			}
+			zip.closeEntry();
+		}
+		zip.close();
+
+		LOCCount locCount = new LOCCount( archiveDir.getAbsolutePath(), true, true, "*.java", "" );
+		locCount.setScanArchives( true );
+		locCount.setDeduplicate( true );
+		locCount.process();
+		assertEquals( 2, locCount.getStatistics().getNoOfSourceFiles() );
+		assertEquals( 2L * blocks * block.length / 8, locCount.getLoc() );
+		assertEquals( 0, locCount.getDuplicateFiles() );
+	}
+
+	/**
+	 * Test method for {@link LOCCount#setUseIgnoreFiles(boolean)}.
+	 * @throws IOException 
+	 */
+	@Test
+	public void testIgnoreFiles() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testIgnoreFiles ****************" );
+
+		FileWriter writer = new FileWriter( new File( tempRoot, ".gitignore" ) );
+		writer.write( "# build output\ndir2/\n/file2\n" );
+		writer.close();
+
+		LOCCount locCount = new LOCCount( new File( tempRoot ).getAbsolutePath(), true, true, "file*", "" );
+		locCount.setUseIgnoreFiles( true );
+		assertEquals( 2, locCount.getFileList().size() );
+
+		//A deeper ignore file takes precedence
+		writer = new FileWriter( new File( tempRoot, "dir1/.locignore" ) );
+		writer.write( "!dir2/\ndir2/dir3/file2\n" );
+		writer.close();
+		locCount.reset();
+		assertEquals( 4, locCount.getFileList().size() );
+
+		//The repository itself is never walked
+		new File( tempRoot, ".git/objects" ).mkdirs();
+		createTempFile( tempRoot + ".git/objects/file3" );
+		locCount.reset();
+		assertEquals( 4, locCount.getFileList().size() );
+
+		locCount.setUseIgnoreFiles( false );
+		locCount.reset();
+		assertEquals( 7, locCount.getFileList().size() );
+	}
+
+	@Test
+	public void testLinks() throws IOException
+	{
+
+		logger.log( Level.INFO, "**************** testLinks ****************" );
+
+		//A second way into dir2, a loop back to the root and a linked file
+		Path root = Paths.get( tempRoot );
+		Files.createSymbolicLink( root.resolve( "alias" ), root.resolve( "dir1/dir2" ) );
+		Files.createSymbolicLink( root.resolve( "dir1/dir2/dir3/loop" ), root );
+		Files.createSymbolicLink( root.resolve( "file3" ), root.resolve( "file1" ) );
+
+		LOCCount locCount = new LOCCount( root.toAbsolutePath().toString(), true, true, "file*", "" );
+		assertEquals( 7, locCount.getFileList().size() );
+
+		locCount.setFollowLinks( false );
+		locCount.reset();
+		assertEquals( 6, locCount.getFileList().size() );
+
+		//Only the link is deleted, not the directory it leads to
+		assertTrue( IOUtil.deleteDirectory( new File( tempRoot, "alias" ) ) );
+		assertTrue( Files.exists( root.resolve( "dir1/dir2/dir3/file1" ) ) );
+	}
+}
@@ -0,0 +1,286 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.varun.core.IOUtil;
+import org.varun.core.LOCCount;
+import org.varun.core.LOCStatistics;
+import org.varun.core.LOCWatcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests methods in LOCWatcher
+ *
+ * @author varun
+ */
+public class LOCWatcherTest
+{
+
+	private static final long TIMEOUT = 10000;
+
+	private File tempRoot;
+	private LOCWatcher watcher;
+
+	// Every file written gets a new name, so that the last one can tell when
+	// all earlier events have been handled
+	private int marker;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		tempRoot = new File( System.getProperty( "java.io.tmpdir" ), "junit.LOCWatcherTest" );
+		IOUtil.deleteDirectory( tempRoot );
+		new File( tempRoot, "sub/deeper" ).mkdirs();
+		write( new File( tempRoot, "A.java" ), "class A\n{\n}\n" );
+		write( new File( tempRoot, "sub/B.java" ), "class B\n{\n}\n" );
+		write( new File( tempRoot, "sub/C.java" ), "class C\n{\n}\n" );
+		write( new File( tempRoot, "sub/deeper/D.java" ), "class D\n{\n}\n" );
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		if ( watcher != null )
+		{
+			watcher.close();
+		}
+		IOUtil.deleteDirectory( tempRoot );
+	}
+
+	private static void write( File file, String contents ) throws IOException
+	{
+		FileWriter writer = new FileWriter( file );
+		try
+		{
+			writer.write( contents );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes a jar elsewhere and moves it into place, so that the watcher
+	 * sees it complete.
+	 */
+	private void writeJar( File file, String... names ) throws IOException
+	{
+		File temp = new File( tempRoot.getParentFile(), file.getName() );
+		ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( temp ) );
+		for ( String name : names )
+		{
+			zip.putNextEntry( new ZipEntry( name ) );
+			zip.write( "class Entry\n{\n}\n".getBytes( "UTF-8" ) );
+			zip.closeEntry();
+		}
+		zip.close();
+		Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	private LOCStatistics start( LOCCount counter ) throws IOException
+	{
+		watcher = new LOCWatcher( counter );
+		return watcher.start( null );
+	}
+
+	private LOCStatistics start() throws IOException
+	{
+		return start( new LOCCount( tempRoot.getPath(), true, false, "*.java", "" ) );
+	}
+
+	/**
+	 * Waits until the watcher counts <tt>files</tt> source files with
+	 * <tt>lines</tt> lines of code. A file may be counted while it is being
+	 * written, so both have to match.
+	 */
+	private void await( long files, long lines ) throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + TIMEOUT;
+		LOCStatistics totals = watcher.getTotals();
+		while ( ( totals.getNoOfSourceFiles() != files || totals.getLinesOfCode() != lines ) && System.currentTimeMillis() < end )
+		{
+			Thread.sleep( 10 );
+			totals = watcher.getTotals();
+		}
+		assertEquals( files, totals.getNoOfSourceFiles() );
+		assertEquals( lines, totals.getLinesOfCode() );
+	}
+
+	/**
+	 * Writes a new file in the root and waits until it is counted, so that
+	 * all changes before have been handled as well.
+	 */
+	private void sync( long files, long lines ) throws IOException, InterruptedException
+	{
+		write( new File( tempRoot, "Marker" + marker++ + ".java" ), "class Marker\n" );
+		await( files + 1, lines + 1 );
+	}
+
+	@Test
+	public void testCreate() throws Exception
+	{
+		assertEquals( 4, start().getNoOfSourceFiles() );
+
+		write( new File( tempRoot, "sub/E.java" ), "class E\n{\n}\n" );
+		await( 5, 15 );
+
+		//A created directory is watched, and the files in it are counted
+		new File( tempRoot, "new" ).mkdir();
+		write( new File( tempRoot, "new/F.java" ), "class F\n" );
+		await( 6, 16 );
+		write( new File( tempRoot, "new/G.java" ), "class G\n" );
+		await( 7, 17 );
+	}
+
+	@Test
+	public void testModify() throws Exception
+	{
+		assertEquals( 12, start().getLinesOfCode() );
+
+		write( new File( tempRoot, "sub/B.java" ), "class B\n{\n\tint i;\n}\n" );
+		sync( 4, 13 );
+	}
+
+	@Test
+	public void testRelativeRoot() throws Exception
+	{
+		String relative = new File( "" ).getAbsoluteFile().toPath().relativize( tempRoot.toPath() ).toString();
+		start( new LOCCount( relative, true, false, "*.java", "" ) );
+
+		//A changed file replaces its first count
+		write( new File( tempRoot, "sub/B.java" ), "class B\n{\n\tint i;\n}\n" );
+		sync( 4, 13 );
+
+		//A single file is watched as well
+		watcher.close();
+		assertEquals( 1, start( new LOCCount( new File( relative, "A.java" ).getPath(), true, false, "*.java", "" ) ).getNoOfSourceFiles() );
+		write( new File( tempRoot, "A.java" ), "class A\n{\n\tint i;\n}\n" );
+		await( 1, 4 );
+	}
+
+	@Test
+	public void testFailingListener() throws Exception
+	{
+		watcher = new LOCWatcher( new LOCCount( tempRoot.getPath(), true, false, "*.java", "" ) );
+		watcher.start( new LOCWatcher.ChangeListener()
+		{
+			public void totalsChanged( LOCStatistics totals )
+			{
+				throw new IllegalStateException( "Failed on purpose" );
+			}
+		} );
+
+		//Changes after the failure are still counted
+		write( new File( tempRoot, "sub/E.java" ), "class E\n{\n}\n" );
+		await( 5, 15 );
+		write( new File( tempRoot, "sub/F.java" ), "class F\n" );
+		await( 6, 16 );
+	}
+
+	@Test
+	public void testDelete() throws Exception
+	{
+		start();
+
+		assertEquals( true, new File( tempRoot, "sub/C.java" ).delete() );
+		await( 3, 9 );
+	}
+
+	@Test
+	public void testDeleteDirectory() throws Exception
+	{
+		start();
+
+		assertEquals( true, IOUtil.deleteDirectory( new File( tempRoot, "sub" ) ) );
+		await( 1, 3 );
+	}
+
+	@Test
+	public void testDirectoryAttributes() throws Exception
+	{
+		start();
+
+		//Changing a directory does not drop the files in it
+		Set<PosixFilePermission> permissions = Files.getPosixFilePermissions( new File( tempRoot, "sub" ).toPath() );
+		permissions.add( PosixFilePermission.GROUP_WRITE );
+		Files.setPosixFilePermissions( new File( tempRoot, "sub" ).toPath(), permissions );
+		new File( tempRoot, "sub/deeper" ).setLastModified( 0 );
+		sync( 4, 12 );
+	}
+
+	@Test
+	public void testIgnoreFiles() throws Exception
+	{
+		write( new File( tempRoot, ".gitignore" ), "deeper/\nSkip*.java\n" );
+		LOCCount counter = new LOCCount( tempRoot.getPath(), true, false, "*.java", "" );
+		counter.setUseIgnoreFiles( true );
+		assertEquals( 3, start( counter ).getNoOfSourceFiles() );
+
+		//Ignored files stay ignored when they change
+		write( new File( tempRoot, "sub/deeper/E.java" ), "class E\n{\n}\n" );
+		write( new File( tempRoot, "sub/Skip.java" ), "class Skip\n" );
+		new File( tempRoot, "new/deeper" ).mkdirs();
+		write( new File( tempRoot, "new/deeper/F.java" ), "class F\n" );
+		sync( 3, 9 );
+
+		//A changed ignore file applies to all files
+		write( new File( tempRoot, ".gitignore" ), "Skip*.java\n" );
+		await( 7, 17 );
+	}
+
+	@Test
+	public void testLinks() throws Exception
+	{
+		start();
+
+		//Neither a second way into a watched directory nor a loop is counted
+		Files.createSymbolicLink( new File( tempRoot, "alias" ).toPath(), new File( tempRoot, "sub" ).toPath() );
+		Files.createSymbolicLink( new File( tempRoot, "sub/deeper/loop" ).toPath(), tempRoot.toPath() );
+		sync( 4, 12 );
+	}
+
+	@Test
+	public void testNoFollowLinks() throws Exception
+	{
+		new File( tempRoot, "other" ).mkdir();
+		write( new File( tempRoot, "other/E.java" ), "class E\n{\n}\n" );
+		LOCCount counter = new LOCCount( new File( tempRoot, "sub" ).getPath(), true, false, "*.java", "" );
+		counter.setFollowLinks( false );
+		assertEquals( 3, start( counter ).getNoOfSourceFiles() );
+
+		Files.createSymbolicLink( new File( tempRoot, "sub/other" ).toPath(), new File( tempRoot, "other" ).toPath() );
+		Files.createSymbolicLink( new File( tempRoot, "sub/Link.java" ).toPath(), new File( tempRoot, "A.java" ).toPath() );
+		write( new File( tempRoot, "sub/E.java" ), "class E\n" );
+		await( 4, 10 );
+	}
+
+	@Test
+	public void testArchive() throws Exception
+	{
+		writeJar( new File( tempRoot, "sub/lib.jar" ), "a/E.java", "a/F.java" );
+		LOCCount counter = new LOCCount( tempRoot.getPath(), true, false, "*.java", "" );
+		counter.setScanArchives( true );
+		assertEquals( 6, start( counter ).getNoOfSourceFiles() );
+
+		//The entries of a changed archive replace the old ones
+		writeJar( new File( tempRoot, "sub/lib.jar" ), "a/E.java" );
+		await( 5, 15 );
+
+		assertEquals( true, new File( tempRoot, "sub/lib.jar" ).delete() );
+		await( 4, 12 );
+	}
+}
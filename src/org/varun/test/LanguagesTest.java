@@ -0,0 +1,120 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.varun.core.LOCStatistics;
+import org.varun.core.Language;
+import org.varun.core.Languages;
+import org.varun.core.LineClassifier;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests methods in Languages and the classification with their rules
+ *
+ * @author varun
+ */
+public class LanguagesTest
+{
+
+	private static LOCStatistics classify( String contents, Language language )
+	{
+		byte[] bytes = contents.getBytes( StandardCharsets.UTF_8 );
+		LOCStatistics statistics = new LOCStatistics();
+		LineClassifier.classifyContents( ByteBuffer.wrap( bytes ), bytes.length, statistics, true, language );
+		return statistics;
+	}
+
+	/**
+	 * Test method for {@link Languages#forFileName(String)}.
+	 */
+	@Test
+	public void testForFileName()
+	{
+		assertSame( Languages.getDefault(), Languages.forFileName( "Main.java" ) );
+		assertSame( Languages.getDefault(), Languages.forFileName( "Makefile" ) );
+		assertEquals( "Python", Languages.forFileName( "setup.PY" ).getName() );
+		assertEquals( "SQL", Languages.forFileName( "schema.sql" ).getName() );
+	}
+
+	@Test
+	public void testPython()
+	{
+		LOCStatistics statistics = classify( "# A script\nimport os\nfrom sys import argv\n\nprint( argv )\nx = 1 # one\n", Languages.forFileName( "a.py" ) );
+		assertEquals( 6, statistics.getLinesOfCode() );
+		assertEquals( 2, statistics.getCommentedLines() );
+		assertEquals( 2, statistics.getImportStatements() );
+		assertEquals( 2, statistics.getEffectiveLinesOfCode() );
+	}
+
+	@Test
+	public void testSql()
+	{
+		LOCStatistics statistics = classify( "-- Schema\nCREATE TABLE t\n(\n  id INT\n);\n/* done */\n", Languages.forFileName( "a.sql" ) );
+		assertEquals( 6, statistics.getLinesOfCode() );
+		assertEquals( 2, statistics.getCommentedLines() );
+		assertEquals( 2, statistics.getEffectiveLinesOfCode() );
+	}
+
+	/**
+	 * Comment markers and terminators inside literals do not count.
+	 */
+	@Test
+	public void testStringLiterals()
+	{
+		LOCStatistics statistics = classify( "String url = \"http://example.com\";\nchar c = '\"'; // quote\nString s = \"/* \\\" */\";\nfoo( \";\"\nx );\n", Languages.getDefault() );
+		assertEquals( 1, statistics.getCommentedLines() );
+		assertEquals( 4, statistics.getEffectiveLinesOfCode() );
+	}
+
+	/**
+	 * A block comment that ends on the line it starts on does not hide the
+	 * lines after it.
+	 */
+	@Test
+	public void testBlockCommentOnOneLine()
+	{
+		LOCStatistics statistics = classify( "/* one */\nint a;\nint b; /* two */ int c;\n/*\n * three\n */\n", Languages.getDefault() );
+		assertEquals( 4, statistics.getCommentedLines() );
+		assertEquals( 2, statistics.getEffectiveLinesOfCode() );
+	}
+
+	/**
+	 * A UTF-8 byte order mark is skipped, other byte order marks and binary
+	 * contents are not source.
+	 */
+	@Test
+	public void testByteOrderMark()
+	{
+		LOCStatistics statistics = classify( "\ufeffpackage a;\n// b\n", Languages.getDefault() );
+		assertEquals( 1, statistics.getPackageStatements() );
+		assertEquals( 1, statistics.getCommentedLines() );
+
+		byte[] bytes = { ( byte ) 0xca, ( byte ) 0xfe, ( byte ) 0xba, ( byte ) 0xbe, 0, 0, 0, 52 };
+		assertFalse( LineClassifier.classifyContents( ByteBuffer.wrap( bytes ), bytes.length, new LOCStatistics(), true ) );
+	}
+
+	/**
+	 * UTF-16 and UTF-32 contents are classified the same as UTF-8.
+	 */
+	@Test
+	public void testWideEncodings() throws Exception
+	{
+		String contents = "package a;\n// Gr\u00fc\u00dfe \ud83d\ude00\nString s = \"\u4e16 /* \";\n/* \u754c\n */ int b;\r\n";
+		LOCStatistics expected = classify( contents, Languages.getDefault() );
+		for ( String encoding : new String[] { "UTF-16BE", "UTF-16LE", "UTF-32BE", "UTF-32LE" } )
+		{
+			byte[] bytes = ( "\ufeff" + contents ).getBytes( encoding );
+			LOCStatistics statistics = new LOCStatistics();
+			assertTrue( LineClassifier.classifyContents( ByteBuffer.wrap( bytes ), bytes.length, statistics, true ) );
+			assertEquals( encoding, expected.getMessages( true ), statistics.getMessages( true ) );
+		}
+		assertEquals( 1, expected.getPackageStatements() );
+		assertEquals( 3, expected.getCommentedLines() );
+	}
+}
@@ -0,0 +1,161 @@
+package org.varun.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.varun.core.IOUtil;
+import org.varun.startup.ScanServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests methods in ScanServer
+ *
+ * @author varun
+ */
+public class ScanServerTest
+{
+
+	private File tempRoot;
+	private ScanServer server;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		tempRoot = new File( System.getProperty( "java.io.tmpdir" ), "junit.ScanServerTest" );
+		IOUtil.deleteDirectory( tempRoot );
+		tempRoot.mkdirs();
+		FileWriter writer = new FileWriter( new File( tempRoot, "Main.java" ) );
+		writer.write( "package test;\n\nclass Main\n{\n}\n" );
+		writer.close();
+
+		server = new ScanServer( 0, 2 );
+		server.start();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+		IOUtil.deleteDirectory( tempRoot );
+	}
+
+	private String get( String path, int expectedStatus ) throws IOException
+	{
+		HttpURLConnection connection = ( HttpURLConnection ) new URL( "http://127.0.0.1:" + server.getPort() + path ).openConnection();
+		assertEquals( expectedStatus, connection.getResponseCode() );
+		InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ( ( read = in.read( buffer ) ) >= 0 )
+		{
+			out.write( buffer, 0, read );
+		}
+		in.close();
+		return out.toString( "UTF-8" );
+	}
+
+	/**
+	 * A repeated scan of an unchanged tree does not read any file.
+	 */
+	@Test
+	public void testRepeatedScan() throws IOException
+	{
+		String query = "/scan?recursive=true&root=" + URLEncoder.encode( tempRoot.getPath(), "UTF-8" );
+		String first = get( query, 200 );
+		assertTrue( first, first.contains( "\"sourceFiles\":1," ) );
+		assertTrue( first, first.contains( "\"bytesRead\":30," ) );
+
+		String second = get( query, 200 );
+		assertEquals( first.substring( 0, first.indexOf( "\"metrics\"" ) ), second.substring( 0, second.indexOf( "\"metrics\"" ) ) );
+		assertTrue( second, second.contains( "\"bytesRead\":0," ) );
+
+		String status = get( "/status", 200 );
+		assertEquals( "{\"requests\":2,\"cachedRoots\":1,\"cachedFiles\":1}", status );
+	}
+
+	/**
+	 * Only the most recently scanned roots are kept.
+	 */
+	@Test
+	public void testMaxRoots() throws IOException
+	{
+		server.stop();
+		server = new ScanServer( 0, 2, 1 );
+		server.start();
+
+		File other = new File( tempRoot, "other" );
+		other.mkdir();
+		get( "/scan?recursive=true&root=" + URLEncoder.encode( tempRoot.getPath(), "UTF-8" ), 200 );
+		get( "/scan?root=" + URLEncoder.encode( other.getPath(), "UTF-8" ), 200 );
+		assertEquals( "{\"requests\":2,\"cachedRoots\":1,\"cachedFiles\":0}", get( "/status", 200 ) );
+
+		//The evicted root is read again
+		String again = get( "/scan?recursive=true&root=" + URLEncoder.encode( tempRoot.getPath(), "UTF-8" ), 200 );
+		assertTrue( again, again.contains( "\"bytesRead\":30," ) );
+	}
+
+	/**
+	 * Requests with different settings for the same root at the same time
+	 * do not close the engine of each other.
+	 */
+	@Test
+	public void testConcurrentSettings() throws Exception
+	{
+		server.stop();
+		server = new ScanServer( 0, 4 );
+		server.start();
+
+		for ( int i = 0; i < 200; i++ )
+		{
+			FileWriter writer = new FileWriter( new File( tempRoot, "File" + i + ".txt" ) );
+			writer.write( "Line 1\nLine 2\n" );
+			writer.close();
+		}
+		final String root = URLEncoder.encode( tempRoot.getPath(), "UTF-8" );
+
+		ExecutorService clients = Executors.newFixedThreadPool( 4 );
+		List<Future<String>> responses = new ArrayList<Future<String>>();
+		for ( int i = 0; i < 40; i++ )
+		{
+			final String include = i % 2 == 0 ? "*.java" : "*.txt";
+			responses.add( clients.submit( new Callable<String>()
+			{
+				public String call() throws IOException
+				{
+					return get( "/scan?recursive=true&threads=2&include=" + include + "&root=" + root, 200 );
+				}
+			} ) );
+		}
+		for ( int i = 0; i < responses.size(); i++ )
+		{
+			String response = responses.get( i ).get();
+			assertTrue( response, response.contains( i % 2 == 0 ? "\"sourceFiles\":1," : "\"sourceFiles\":200," ) );
+		}
+		clients.shutdown();
+	}
+
+	@Test
+	public void testMissingRoot() throws IOException
+	{
+		assertEquals( "{\"error\":\"Missing parameter: root\"}", get( "/scan", 400 ) );
+		get( "/scan?root=" + URLEncoder.encode( new File( tempRoot, "missing" ).getPath(), "UTF-8" ), 404 );
+	}
+}